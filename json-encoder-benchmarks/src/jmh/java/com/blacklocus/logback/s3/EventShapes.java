@@ -0,0 +1,81 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Builds events of the shapes seen in production. A fresh event is built per invocation because logback caches
+ * formatted messages and caller data on the event itself.
+ */
+class EventShapes {
+
+    static final String NO_ARGS = "noArgs";
+    static final String MANY_ARGS = "manyArgs";
+    static final String HEAVY_MDC = "heavyMdc";
+    static final String THROWABLE = "throwable";
+
+    private final Logger logger;
+    private final String shape;
+    private final Object[] manyArgs = {"str", 42, 3.14d, UUID.randomUUID(), Level.INFO, Arrays.asList("a", "b", "c"),
+            Collections.singletonMap("key", "value"), 123456789L};
+    private final Map<String, String> emptyMdc = Collections.emptyMap();
+    private final Map<String, String> heavyMdc = new HashMap<>();
+    private final Exception exception = nested(5);
+
+    EventShapes(Logger logger, String shape) {
+        this.logger = logger;
+        this.shape = shape;
+        for (int i = 0; i < 15; i++) {
+            heavyMdc.put("mdcKey" + i, "value-" + i + "-" + UUID.randomUUID());
+        }
+    }
+
+    LoggingEvent next() {
+        LoggingEvent e;
+        switch (shape) {
+            case NO_ARGS:
+                e = new LoggingEvent(EventShapes.class.getName(), logger, Level.INFO, "nothing to see here", null, null);
+                e.setMDCPropertyMap(emptyMdc);
+                return e;
+            case MANY_ARGS:
+                e = new LoggingEvent(EventShapes.class.getName(), logger, Level.INFO,
+                        "{} {} {} {} {} {} {} {}", null, manyArgs);
+                e.setMDCPropertyMap(emptyMdc);
+                return e;
+            case HEAVY_MDC:
+                e = new LoggingEvent(EventShapes.class.getName(), logger, Level.INFO,
+                        "request {} took {}ms", null, new Object[]{"/api/thing", 12});
+                e.setMDCPropertyMap(heavyMdc);
+                return e;
+            case THROWABLE:
+                e = new LoggingEvent(EventShapes.class.getName(), logger, Level.ERROR,
+                        "failed to do {}", exception, new Object[]{"the thing"});
+                e.setMDCPropertyMap(emptyMdc);
+                return e;
+            default:
+                throw new IllegalArgumentException(shape);
+        }
+    }
+
+    private static Exception nested(int depth) {
+        return depth == 0 ? new IllegalStateException("root cause") : new RuntimeException("wrapped " + depth, nested(depth - 1));
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Per-event cost of JsonEncoder across event shapes, with pattern rendering and line numbers on and off. Run with the
+ * gc profiler (configured in build.gradle) for allocation per event; SampleTime mode reports latency percentiles.
+ * <p>
+ * Every benchmark builds its event, so compare against {@link #eventOnly()} for the cost of encoding alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class JsonEncoderBenchmark {
+
+    @Param({EventShapes.NO_ARGS, EventShapes.MANY_ARGS, EventShapes.HEAVY_MDC, EventShapes.THROWABLE})
+    public String shape;
+
+    @Param({"", "%d [%thread] %-5level %logger - %msg%n"})
+    public String pattern;
+
+    @Param({"false", "true"})
+    public boolean lineNumbers;
+
+    EventShapes events;
+    JsonEncoder<ILoggingEvent> encoder;
+    JsonEncoder<ILoggingEvent> directEncoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        LoggerContext loggerContext = new LoggerContext();
+        events = new EventShapes(loggerContext.getLogger("com.blacklocus.benchmark.SomeService"), shape);
+        encoder = newEncoder(loggerContext, false);
+        directEncoder = newEncoder(loggerContext, true);
+    }
+
+    JsonEncoder<ILoggingEvent> newEncoder(LoggerContext loggerContext, boolean directUtf8) throws IOException {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setPattern(pattern.isEmpty() ? null : pattern);
+        encoder.setLineNumbers(lineNumbers);
+        encoder.setDirectUtf8(directUtf8);
+        encoder.setImmediateFlush(false);
+        encoder.start();
+        encoder.init(NULL_OUTPUT_STREAM);
+        return encoder;
+    }
+
+    @Benchmark
+    public ILoggingEvent eventOnly() {
+        return events.next();
+    }
+
+    @Benchmark
+    public String layout() {
+        return encoder._doLayout(events.next());
+    }
+
+    @Benchmark
+    public void encode() throws IOException {
+        encoder.doEncode(events.next());
+    }
+
+    @Benchmark
+    public void encodeDirectUtf8() throws IOException {
+        directEncoder.doEncode(events.next());
+    }
+
+    /**
+     * Many threads sharing one encoder, as they would behind an appender that doesn't serialize encoding.
+     */
+    @Benchmark
+    @Threads(8)
+    public String layoutContended() {
+        return encoder._doLayout(events.next());
+    }
+
+    static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+}
@@ -5,4 +5,5 @@ mkdir -p src/main/java/com/blacklocus/logback/s3/avro
 avro-tools compile schema \
     src/main/avro/LogLevel.avsc \
     src/main/avro/RawLog.avsc \
+    src/main/avro/RawLogV2.avsc \
     src/main/java
\ No newline at end of file
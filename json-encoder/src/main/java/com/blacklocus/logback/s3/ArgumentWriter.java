@@ -0,0 +1,29 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.IOException;
+
+/**
+ * Writes one log argument as a JSON value. Register implementations for your own types on the encoder with
+ * <code>&lt;argumentWriter&gt;com.example.Money=com.example.MoneyArgumentWriter&lt;/argumentWriter&gt;</code>.
+ * Implementations need a public no-arg constructor and must be thread-safe.
+ */
+public interface ArgumentWriter {
+
+    /**
+     * @param arg     never null, and assignable to the type the writer was registered for
+     * @param out     where the JSON value goes
+     * @param writers to write nested values with, e.g. collection elements
+     */
+    void write(Object arg, JsonWriter out, ArgumentWriters writers) throws IOException;
+}
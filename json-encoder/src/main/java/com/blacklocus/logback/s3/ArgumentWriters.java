@@ -0,0 +1,341 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link ArgumentWriter}s by argument class. Boxed primitives, enums, UUIDs, CharSequences, collections
+ * and maps get built-in writers whose output matches what Jackson produces for them. Everything else goes through
+ * Jackson with the ObjectWriter cached per class. The writer picked for a class is cached too, so the lookup cost is
+ * paid once per class.
+ */
+public class ArgumentWriters {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ArgumentWriter jackson = new JacksonArgumentWriter(mapper.writer());
+    private final Map<Class<?>, ArgumentWriter> registered = new LinkedHashMap<>();
+    private final ConcurrentMap<Class<?>, ArgumentWriter> resolved = new ConcurrentHashMap<>();
+    private int maxSize = Integer.MAX_VALUE;
+    private int maxElements = Integer.MAX_VALUE;
+    private int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * Bounds what {@link #writeBounded} writes. Collections and maps beyond maxElements get a {@link JsonWriter#TRUNCATED}
+     * element in place of the rest, values nested deeper than maxDepth are written as {@link JsonWriter#TRUNCATED}.
+     * Not positive means unlimited. Set before the encoder starts.
+     */
+    void limit(int maxSize, int maxElements, int maxDepth) {
+        this.maxSize = maxSize > 0 ? maxSize : Integer.MAX_VALUE;
+        this.maxElements = maxElements > 0 ? maxElements : Integer.MAX_VALUE;
+        this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Uses the writer for the given type and its subtypes, in preference to the built-in ones. Writers registered first
+     * win when more than one is applicable. Register before the encoder starts.
+     */
+    synchronized void register(Class<?> type, ArgumentWriter writer) {
+        registered.put(type, writer);
+        resolved.clear();
+    }
+
+    /**
+     * Writes the argument as a JSON value, with strings in it escaped as Jackson would escape them.
+     */
+    public void write(Object arg, JsonWriter out) throws IOException {
+        if (null == arg) {
+            out.nullValue();
+        } else if (out.depth >= maxDepth) {
+            out.string(JsonWriter.TRUNCATED);
+        } else {
+            boolean jacksonEscapes = out.jacksonEscapes;
+            out.jacksonEscapes = true;
+            out.depth++;
+            try {
+                writerFor(arg.getClass()).write(arg, out, this);
+            } finally {
+                out.depth--;
+                out.jacksonEscapes = jacksonEscapes;
+            }
+        }
+    }
+
+    /**
+     * Writes the argument as a JSON value into json, which is reset first, stopping at maxSize chars.
+     *
+     * @return true if the value was cut short, in which case json holds as much of it as fit
+     */
+    boolean writeBounded(Object arg, CharJsonWriter json) throws IOException {
+        json.reset();
+        json.limit = maxSize;
+        try {
+            write(arg, json);
+            return false;
+        } catch (LimitExceededException e) {
+            return true;
+        } finally {
+            json.limit = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Adds each argument to into as a string: Strings as they are, everything else as its JSON, both cut short at
+     * maxSize and marked with {@link JsonWriter#TRUNCATED}.
+     *
+     * @param buffers where to borrow a writer for the JSON from
+     */
+    void stringify(Object[] args, List<CharSequence> into, BufferPool<CharJsonWriter> buffers) throws IOException {
+        if (null == args) {
+            return;
+        }
+
+        for (Object arg : args) {
+            if (null == arg) {
+                into.add(null);
+            } else if (arg instanceof String) {
+                String s = (String) arg;
+                into.add(s.length() <= maxSize ? s : s.substring(0, maxSize) + JsonWriter.TRUNCATED);
+            } else {
+                CharJsonWriter json = buffers.acquire();
+                try {
+                    boolean truncated = writeBounded(arg, json);
+                    into.add(truncated ? json + JsonWriter.TRUNCATED : json.toString());
+                } finally {
+                    buffers.release(json);
+                }
+            }
+        }
+    }
+
+    ArgumentWriter writerFor(Class<?> type) {
+        ArgumentWriter writer = resolved.get(type);
+        if (null == writer) {
+            writer = lookup(type);
+            ArgumentWriter raced = resolved.putIfAbsent(type, writer);
+            if (null != raced) {
+                writer = raced;
+            }
+        }
+        return writer;
+    }
+
+    private synchronized ArgumentWriter lookup(Class<?> type) {
+        for (Map.Entry<Class<?>, ArgumentWriter> entry : registered.entrySet()) {
+            if (entry.getKey().isAssignableFrom(type)) {
+                return entry.getValue();
+            }
+        }
+        if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+                || type == BigInteger.class || type == BigDecimal.class) {
+            return NUMBER;
+        }
+        if (type == Double.class || type == Float.class) {
+            return FLOATING;
+        }
+        if (type == Boolean.class) {
+            return LITERAL;
+        }
+        if (type == Character.class || type == UUID.class) {
+            return TO_STRING;
+        }
+        if (Enum.class.isAssignableFrom(type)) {
+            return ENUM;
+        }
+        if (CharSequence.class.isAssignableFrom(type)) {
+            return CHAR_SEQUENCE;
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return COLLECTION;
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return MAP;
+        }
+        return new JacksonArgumentWriter(mapper.writerWithType(type));
+    }
+
+    private static final ArgumentWriter NUMBER = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) {
+            if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+                out.number(((Number) arg).longValue());
+            } else {
+                out.raw(arg.toString());
+            }
+        }
+    };
+
+    private static final ArgumentWriter FLOATING = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) {
+            double d = ((Number) arg).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                // Jackson quotes non-numeric numbers by default.
+                out.raw('"').raw(arg.toString()).raw('"');
+            } else {
+                out.raw(arg.toString());
+            }
+        }
+    };
+
+    private static final ArgumentWriter LITERAL = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) {
+            out.raw(arg.toString());
+        }
+    };
+
+    private static final ArgumentWriter TO_STRING = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) {
+            out.string(arg.toString());
+        }
+    };
+
+    private static final ArgumentWriter ENUM = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) {
+            out.string(((Enum<?>) arg).name());
+        }
+    };
+
+    private static final ArgumentWriter CHAR_SEQUENCE = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) {
+            out.string((CharSequence) arg);
+        }
+    };
+
+    private static final ArgumentWriter COLLECTION = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) throws IOException {
+            out.raw('[');
+            int written = 0;
+            for (Object element : (Collection<?>) arg) {
+                if (written > 0) {
+                    out.raw(',');
+                }
+                if (written++ == writers.maxElements) {
+                    out.string(JsonWriter.TRUNCATED);
+                    break;
+                }
+                writers.write(element, out);
+            }
+            out.raw(']');
+        }
+    };
+
+    private static final ArgumentWriter MAP = new ArgumentWriter() {
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) throws IOException {
+            Map<?, ?> map = (Map<?, ?>) arg;
+            for (Object key : map.keySet()) {
+                if (null == key || key instanceof Date || key instanceof Calendar) {
+                    // Jackson has special key handling for these. Let it deal with the whole map.
+                    writers.jackson.write(arg, out, writers);
+                    return;
+                }
+            }
+            out.raw('{');
+            int written = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (written > 0) {
+                    out.raw(',');
+                }
+                if (written++ == writers.maxElements) {
+                    out.string(JsonWriter.TRUNCATED).raw(':').string(JsonWriter.TRUNCATED);
+                    break;
+                }
+                out.string(entry.getKey().toString()).raw(':');
+                writers.write(entry.getValue(), out);
+            }
+            out.raw('}');
+        }
+    };
+
+    /**
+     * Falls back to Jackson, streaming its output into the JsonWriter rather than materializing a String.
+     */
+    private static class JacksonArgumentWriter implements ArgumentWriter {
+        private final ObjectWriter writer;
+
+        JacksonArgumentWriter(ObjectWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(Object arg, JsonWriter out, ArgumentWriters writers) throws IOException {
+            try {
+                writer.writeValue(new JsonWriterAdapter(out), arg);
+            } catch (JsonMappingException e) {
+                if (LimitExceededException.causedBy(e)) {
+                    throw LimitExceededException.INSTANCE;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Passes Jackson's already-escaped JSON output through verbatim.
+     */
+    private static class JsonWriterAdapter extends Writer {
+        private final JsonWriter out;
+
+        JsonWriterAdapter(JsonWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            out.raw(cbuf, off, len);
+        }
+
+        @Override
+        public void write(int c) {
+            out.raw((char) c);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            out.raw(str.substring(off, off + len));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
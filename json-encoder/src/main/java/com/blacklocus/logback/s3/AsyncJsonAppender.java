@@ -0,0 +1,314 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends JSON lines to a file, moving all encoding and I/O off of the logging threads. Events are captured into a
+ * preallocated {@link EventRingBuffer} and a single consumer thread encodes them in batches with the configured
+ * {@link JsonEncoder}, writing each batch with one write call.
+ * <p>
+ * Note that log arguments are only serialized on the consumer thread, so arguments mutated right after the logger
+ * invocation may be logged in their mutated state.
+ *
+ * <pre>
+ * &lt;appender name="json" class="com.blacklocus.logback.s3.AsyncJsonAppender"&gt;
+ *   &lt;file&gt;/tmp/blacklocus.json&lt;/file&gt;
+ *   &lt;bufferSize&gt;8192&lt;/bufferSize&gt;
+ *   &lt;waitStrategy&gt;blocking&lt;/waitStrategy&gt;
+ *   &lt;overflowPolicy&gt;drop&lt;/overflowPolicy&gt;
+ *   &lt;encoder class="com.blacklocus.logback.s3.JsonEncoder"&gt;
+ *     &lt;lineNumbers&gt;true&lt;/lineNumbers&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class AsyncJsonAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    /**
+     * What the consumer thread does when there is nothing to encode.
+     */
+    enum WaitStrategy {
+        /** Park until a producer signals new events. Lowest CPU, slightly higher hand-off latency. */
+        BLOCKING,
+        /** Park for a short fixed interval between polls. */
+        SLEEPING,
+        /** Thread.yield() between polls. */
+        YIELDING,
+        /** Poll continuously. Burns a core. */
+        BUSY_SPIN
+    }
+
+    /**
+     * What logging threads do when the ring buffer is full.
+     */
+    enum OverflowPolicy {
+        /** Wait for the consumer to free a slot. */
+        BLOCK,
+        /** Discard the event and count it in {@link #getDroppedCount()}. */
+        DROP
+    }
+
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int BUFFER_INITIAL_CAPACITY = 64 * 1024;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private EventRingBuffer ring;
+    private Thread consumer;
+    private volatile boolean running;
+    private volatile boolean consumerParked;
+    private OutputStream out;
+
+    // Configurable things
+
+    String file;
+    boolean append = true;
+    JsonEncoder<ILoggingEvent> encoder;
+    int bufferSize = 8192;
+    int batchSize = 512;
+    WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+    OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    int maxFlushTime = 1000;
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    public void setEncoder(JsonEncoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Number of ring buffer slots, rounded up to a power of 2.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Most events encoded into one write call.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * One of blocking, sleeping, yielding, busy-spin.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        this.waitStrategy = WaitStrategy.valueOf(waitStrategy.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * One of block, drop.
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+    }
+
+    /**
+     * Milliseconds to wait on stop for queued events to be written.
+     */
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * @return events discarded because the ring buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return events that could not be encoded
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void start() {
+        if (null == file) {
+            addError("No file set for appender named [" + name + "].");
+            return;
+        }
+        if (null == encoder) {
+            encoder = new JsonEncoder<>();
+            encoder.setContext(context);
+            encoder.start();
+        }
+
+        try {
+            File f = new File(file);
+            File parent = f.getAbsoluteFile().getParentFile();
+            if (null != parent && !parent.exists() && !parent.mkdirs()) {
+                addError("Failed to create parent directories for [" + f.getAbsolutePath() + "]");
+                return;
+            }
+            out = encoder.compress(new FileOutputStream(f, append));
+        } catch (IOException e) {
+            addError("Failed to open [" + file + "]", e);
+            return;
+        }
+
+        ring = new EventRingBuffer(bufferSize);
+        running = true;
+        consumer = new Thread(new Consumer(), "AsyncJsonAppender-" + name);
+        consumer.setDaemon(true);
+        consumer.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(maxFlushTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumer.isAlive()) {
+            // The consumer closes the file itself once it gets through the rest.
+            addWarn("Timed out waiting for queued events to be written by [" + name + "].");
+        }
+        encoder.stop();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!encoder.sample(event)) {
+            return;
+        }
+        Integer lineNumber = encoder.lineNumbers ? encoder.lineNumberOf(event) : null;
+        while (!ring.tryPublish(event, lineNumber)) {
+            // Nobody would ever make room if the consumer were gone.
+            if (overflowPolicy == OverflowPolicy.DROP || !isStarted() || !consumer.isAlive()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(SLEEP_NANOS);
+        }
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private class Consumer implements Runnable, EventRingBuffer.Handler {
+
+        private final Utf8JsonWriter buffer = new Utf8JsonWriter(BUFFER_INITIAL_CAPACITY);
+
+        @Override
+        public void run() {
+            boolean dirty = false;
+            while (running || !ring.isEmpty()) {
+                buffer.reset();
+                int count = ring.drain(batchSize, this);
+                if (count > 0) {
+                    dirty = write() || dirty;
+                } else {
+                    if (dirty) {
+                        dirty = !flush();
+                    }
+                    idle();
+                }
+            }
+            flush();
+            // Closed here rather than by stop, which may have given up waiting while this thread still writes.
+            close();
+        }
+
+        @Override
+        public void handle(ILoggingEvent event) {
+            int mark = buffer.size();
+            try {
+                encoder.writeEvent(event, buffer);
+            } catch (Throwable e) {
+                // Even an Error, such as a StackOverflowError from an arg, must not end the only consumer.
+                buffer.truncate(mark);
+                failed.incrementAndGet();
+                encoder.debug(e);
+            }
+        }
+
+        private boolean write() {
+            try {
+                buffer.writeTo(out);
+                return true;
+            } catch (IOException e) {
+                addError("Failed to write to [" + file + "]", e);
+                return false;
+            }
+        }
+
+        private boolean flush() {
+            try {
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                addError("Failed to flush [" + file + "]", e);
+                return false;
+            }
+        }
+
+        private void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                addError("Failed to close [" + file + "]", e);
+            }
+        }
+
+        private void idle() {
+            switch (waitStrategy) {
+                case BLOCKING:
+                    consumerParked = true;
+                    if (running && ring.isEmpty()) {
+                        LockSupport.parkNanos(MAX_PARK_NANOS);
+                    }
+                    consumerParked = false;
+                    break;
+                case SLEEPING:
+                    LockSupport.parkNanos(SLEEP_NANOS);
+                    break;
+                case YIELDING:
+                    Thread.yield();
+                    break;
+                case BUSY_SPIN:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+import ch.qos.logback.core.recovery.ResilientFileOutputStream;
+import com.blacklocus.logback.s3.avro.LogLevel;
+import com.blacklocus.logback.s3.avro.RawLog;
+import com.blacklocus.logback.s3.avro.RawLogV2;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.SeekableFileInput;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link RawLog} records in binary into an Avro object container file. Each file the appender opens gets its own
+ * header. A file appender reopening a file that already has content, as with append=true after a restart, continues it
+ * instead, with the file's own codec, as long as it holds records of the same schema.
+ * Otherwise the appender fails to start rather than corrupt the file.
+ * <p>
+ * With schemaVersion 2, writes {@link RawLogV2} records instead: the timestamp as epoch millis, and logger names,
+ * format strings and context keys as ids into a dictionary that each file builds up as it goes. Read those back as
+ * RawLog with {@link RawLogReader}.
+ *
+ * <pre>
+ * &lt;appender name="avro" class="ch.qos.logback.core.rolling.RollingFileAppender"&gt;
+ *   &lt;file&gt;/tmp/blacklocus.avro&lt;/file&gt;
+ *   &lt;append&gt;false&lt;/append&gt;
+ *   ...
+ *   &lt;encoder class="com.blacklocus.logback.s3.AvroEncoder"&gt;
+ *     &lt;codec&gt;deflate&lt;/codec&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class AvroEncoder<E> extends EncoderBase<E> {
+
+    private static final String DEBUG_NAME = "[AvroEncoder]";
+
+    static final int DEFAULT_MAX_DICTIONARY_SIZE = 65536;
+
+    /** Records holding more args or context entries than this are not kept around for reuse. */
+    private static final int MAX_RETAINED_ENTRIES = 64;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final ArgumentWriters argumentWriters = new ArgumentWriters();
+    // Records are pooled and refilled in place for every event. The datum writer is done with one once append returns.
+    private final BufferPool<RawLog> records = new BufferPool<RawLog>() {
+        @Override
+        RawLog create() {
+            RawLog record = new RawLog();
+            record.setArgs(new ArrayList<CharSequence>());
+            record.setContext(new HashMap<CharSequence, CharSequence>());
+            return record;
+        }
+
+        @Override
+        boolean retain(RawLog record) {
+            return record.getArgs().size() <= MAX_RETAINED_ENTRIES && record.getContext().size() <= MAX_RETAINED_ENTRIES;
+        }
+    };
+    private final BufferPool<RawLogV2> compactRecords = new BufferPool<RawLogV2>() {
+        @Override
+        RawLogV2 create() {
+            RawLogV2 record = new RawLogV2();
+            record.setDictionary(new ArrayList<CharSequence>());
+            record.setArgs(new ArrayList<CharSequence>());
+            record.setContextKeys(new ArrayList<Integer>());
+            record.setContextValues(new ArrayList<CharSequence>());
+            return record;
+        }
+
+        @Override
+        boolean retain(RawLogV2 record) {
+            return record.getArgs().size() <= MAX_RETAINED_ENTRIES && record.getContextKeys().size() <= MAX_RETAINED_ENTRIES;
+        }
+    };
+    private final BufferPool<CharJsonWriter> argWriters = new BufferPool.Writers<CharJsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        CharJsonWriter create() {
+            return new CharJsonWriter(256);
+        }
+    };
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter(TimestampFormatter.Format.ISO);
+    private PatternLayout renderPatternLayout;
+    private CallerLocator callerLocator = new CallerLocator(1, false, CallerLocator.DEFAULT_MAX_ENTRIES);
+    private DataFileWriter<Object> fileWriter;
+    private boolean compact;
+
+    // The current file's dictionary, for schemaVersion 2. Guarded by this, like the file writer.
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private boolean resetDictionary;
+
+    // Configurable things
+
+    String pattern;
+    boolean lineNumbers = false;
+    int lineNumberSampleRate = 1;
+    boolean lineNumberCache = false;
+    String codec = DataFileConstants.NULL_CODEC;
+    int syncInterval = DataFileConstants.DEFAULT_SYNC_INTERVAL;
+    boolean immediateFlush = false;
+    int schemaVersion = 1;
+    int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+    int argMaxSize = 0;
+    int argMaxElements = 0;
+    int argMaxDepth = 0;
+    boolean debug = false;
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public void setLineNumbers(boolean lineNumbers) {
+        this.lineNumbers = lineNumbers;
+    }
+
+    /**
+     * Only capture line numbers for 1 in this many events per logger. Defaults to 1, every event.
+     */
+    public void setLineNumberSampleRate(int lineNumberSampleRate) {
+        this.lineNumberSampleRate = lineNumberSampleRate;
+    }
+
+    /**
+     * Remember line numbers per logger name and format, so that unsampled events still get one without a stack
+     * capture. Defaults to false.
+     */
+    public void setLineNumberCache(boolean lineNumberCache) {
+        this.lineNumberCache = lineNumberCache;
+    }
+
+    /**
+     * One of null (the default), deflate, deflate-N for a compression level N, snappy, bzip2 or xz.
+     */
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Approximate uncompressed size in bytes of each block. A sync marker follows every block.
+     */
+    public void setSyncInterval(int syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * When true, every event closes the current block and flushes it. Defaults to false, which lets blocks fill up to
+     * the sync interval and compress well.
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    /**
+     * 1 for {@link RawLog} records, the default, or 2 for the more compact {@link RawLogV2}.
+     */
+    public void setSchemaVersion(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    /**
+     * With schemaVersion 2, the dictionary is started over once it holds this many strings, so that logging
+     * dynamically built formats can't grow it without bound. Defaults to 65536.
+     */
+    public void setMaxDictionarySize(int maxDictionarySize) {
+        this.maxDictionarySize = maxDictionarySize;
+    }
+
+    /**
+     * See {@link JsonEncoder#setArgMaxSize(int)}.
+     */
+    public void setArgMaxSize(int argMaxSize) {
+        this.argMaxSize = argMaxSize;
+    }
+
+    /**
+     * See {@link JsonEncoder#setArgMaxElements(int)}.
+     */
+    public void setArgMaxElements(int argMaxElements) {
+        this.argMaxElements = argMaxElements;
+    }
+
+    /**
+     * See {@link JsonEncoder#setArgMaxDepth(int)}.
+     */
+    public void setArgMaxDepth(int argMaxDepth) {
+        this.argMaxDepth = argMaxDepth;
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    @Override
+    public void start() {
+        try {
+            codecFactory();
+        } catch (RuntimeException e) {
+            addError("Unsupported codec '" + codec + "'", e);
+            return;
+        }
+
+        if (schemaVersion != 1 && schemaVersion != 2) {
+            addWarn("Unknown schemaVersion " + schemaVersion + ", using 1.");
+            schemaVersion = 1;
+        }
+        compact = schemaVersion == 2;
+        if (maxDictionarySize <= 0) {
+            maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+        }
+
+        callerLocator = new CallerLocator(lineNumberSampleRate, lineNumberCache, CallerLocator.DEFAULT_MAX_ENTRIES);
+        argumentWriters.limit(argMaxSize, argMaxElements, argMaxDepth);
+
+        if (null != pattern) {
+            PatternLayout renderPatternLayout = new PatternLayout();
+            renderPatternLayout.setContext(context);
+            renderPatternLayout.setPattern(pattern);
+            renderPatternLayout.start();
+            this.renderPatternLayout = renderPatternLayout;
+        }
+
+        super.start();
+    }
+
+    @Override
+    public void init(OutputStream os) throws IOException {
+        super.init(os);
+        Schema schema = compact ? RawLogV2.getClassSchema() : RawLog.getClassSchema();
+        File existing = os instanceof ResilientFileOutputStream ? ((ResilientFileOutputStream) os).getFile() : null;
+        boolean append = null != existing && existing.length() > 0;
+        synchronized (this) {
+            // Every file starts with an empty dictionary. An appended one doesn't, so the first record resets it.
+            dictionary.clear();
+            fileWriter = null;
+            resetDictionary = append;
+            DataFileWriter<Object> writer = new DataFileWriter<>(new SpecificDatumWriter<>(schema))
+                    .setSyncInterval(syncInterval);
+            if (append) {
+                fileWriter = appendTo(writer, existing, schema, os);
+            } else {
+                fileWriter = writer.setCodec(codecFactory()).create(schema, os);
+            }
+        }
+    }
+
+    /**
+     * @return the current file's writer. Called with this held.
+     */
+    private DataFileWriter<Object> fileWriter() throws IOException {
+        if (null == fileWriter) {
+            throw new IOException("No container to write to, see the errors from initializing the encoder");
+        }
+        return fileWriter;
+    }
+
+    /**
+     * Continues the container in file, which os appends to, instead of writing a second header into it.
+     */
+    private static DataFileWriter<Object> appendTo(DataFileWriter<Object> writer, File file, Schema schema,
+            OutputStream os) throws IOException {
+        try (DataFileReader<Object> reader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+            if (!schema.equals(reader.getSchema())) {
+                throw new IOException("Can't append " + schema.getFullName() + " records to [" + file + "], which holds "
+                        + reader.getSchema().getFullName() + " records");
+            }
+        }
+        try (SeekableFileInput in = new SeekableFileInput(file)) {
+            return writer.appendTo(in, os);
+        }
+    }
+
+    @Override
+    public void doEncode(E event) throws IOException {
+        if (!(event instanceof ILoggingEvent)) {
+            return;
+        }
+        if (compact) {
+            encodeCompact((ILoggingEvent) event);
+            return;
+        }
+
+        RawLog record = records.acquire();
+        try {
+            try {
+                fill(record, (ILoggingEvent) event);
+            } catch (Exception e) {
+                debug(e);
+                return;
+            }
+            // Records are per caller, but an encoder shared between appenders would share the file writer too.
+            synchronized (this) {
+                fileWriter().append(record);
+                if (immediateFlush) {
+                    fileWriter.flush();
+                }
+            }
+        } finally {
+            records.release(record);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Only flush. The appender closes the underlying stream itself.
+        if (null != fileWriter) {
+            fileWriter.flush();
+            fileWriter = null;
+        }
+    }
+
+    private void encodeCompact(ILoggingEvent e) throws IOException {
+        RawLogV2 record = compactRecords.acquire();
+        try {
+            encodeCompact(e, record);
+        } finally {
+            compactRecords.release(record);
+        }
+    }
+
+    private void encodeCompact(ILoggingEvent e, RawLogV2 record) throws IOException {
+        String loggerName;
+        String format;
+        try {
+            loggerName = required("loggerName", e.getLoggerName());
+            format = required("format", e.getMessage());
+            fill(record, e);
+        } catch (Exception ex) {
+            debug(ex);
+            return;
+        }
+        // Ids depend on which records came before in the file, so they're assigned in the order records are appended.
+        synchronized (this) {
+            List<CharSequence> entries = record.getDictionary();
+            entries.clear();
+            record.setResetDictionary(resetDictionary || dictionary.size() >= maxDictionarySize);
+            if (record.getResetDictionary()) {
+                dictionary.clear();
+                resetDictionary = false;
+            }
+            record.setLoggerName(intern(loggerName, entries));
+            record.setFormat(intern(format, entries));
+            List<Integer> keys = record.getContextKeys();
+            List<CharSequence> values = record.getContextValues();
+            keys.clear();
+            values.clear();
+            for (Map.Entry<String, String> entry : e.getMDCPropertyMap().entrySet()) {
+                if (null != entry.getValue()) {
+                    keys.add(intern(entry.getKey(), entries));
+                    values.add(entry.getValue());
+                }
+            }
+            try {
+                fileWriter().append(record);
+            } catch (IOException | RuntimeException failure) {
+                // This record's new entries may never make it to the file, so the next record starts over.
+                resetDictionary = true;
+                throw failure;
+            }
+            if (immediateFlush) {
+                fileWriter.flush();
+            }
+        }
+    }
+
+    /**
+     * @return the id of s in the current file's dictionary, first adding it to the dictionary and the record's new
+     * entries if it's not there yet
+     */
+    private int intern(String s, List<CharSequence> entries) {
+        Integer id = dictionary.get(s);
+        if (null == id) {
+            id = dictionary.size();
+            dictionary.put(s, id);
+            entries.add(s);
+        }
+        return id;
+    }
+
+    /**
+     * Fills the fields of the record that don't refer to the dictionary.
+     */
+    void fill(RawLogV2 record, ILoggingEvent e) throws IOException {
+        record.setLogLevel(LogLevel.valueOf(e.getLevel().toString()));
+        record.setTimestamp(e.getTimeStamp());
+        record.setLineNumber(lineNumbers ? callerLocator.lineNumber(e) : null);
+        record.setRendered(null == renderPatternLayout ? null : renderPatternLayout.doLayout(e));
+
+        List<CharSequence> args = record.getArgs();
+        args.clear();
+        argumentWriters.stringify(e.getArgumentArray(), args, argWriters);
+    }
+
+    /**
+     * Overwrites every field of the record with the event, without the allocation and validation of RawLog.Builder.
+     * Required fields are still checked, so that a bad event is dropped here rather than failing the append. MDC
+     * entries with null values are left out, since the schema's map values can't be null.
+     */
+    void fill(RawLog record, ILoggingEvent e) throws IOException {
+        record.setLoggerName(required("loggerName", e.getLoggerName()));
+        record.setLogLevel(LogLevel.valueOf(e.getLevel().toString()));
+        record.setLogDateTime(timestampFormatter.format(e.getTimeStamp()));
+        record.setLineNumber(lineNumbers ? callerLocator.lineNumber(e) : null);
+        record.setRendered(null == renderPatternLayout ? null : renderPatternLayout.doLayout(e));
+        record.setFormat(required("format", e.getMessage()));
+
+        List<CharSequence> args = record.getArgs();
+        args.clear();
+        argumentWriters.stringify(e.getArgumentArray(), args, argWriters);
+
+        Map<CharSequence, CharSequence> context = record.getContext();
+        context.clear();
+        for (Map.Entry<String, String> entry : e.getMDCPropertyMap().entrySet()) {
+            if (null != entry.getValue()) {
+                context.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String required(String field, String value) {
+        if (null == value) {
+            throw new NullPointerException("RawLog." + field + " can't be null");
+        }
+        return value;
+    }
+
+    private CodecFactory codecFactory() {
+        String name = codec.trim().toLowerCase();
+        if (name.startsWith(DataFileConstants.DEFLATE_CODEC + "-")) {
+            return CodecFactory.deflateCodec(Integer.parseInt(name.substring(DataFileConstants.DEFLATE_CODEC.length() + 1)));
+        }
+        return CodecFactory.fromString(name);
+    }
+
+    void debug(Object message) {
+        if (debug) {
+            if (message instanceof Throwable) {
+                ((Throwable) message).printStackTrace(System.err);
+            } else {
+                System.err.println(DEBUG_NAME + " " + message);
+            }
+        }
+    }
+}
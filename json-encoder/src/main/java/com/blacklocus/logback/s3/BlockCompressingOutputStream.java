@@ -0,0 +1,149 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses a stream in independently decodable blocks. Bytes are buffered until the block is full, or until a write
+ * or flush finds the oldest buffered byte older than the flush interval. Only then is the block compressed and written.
+ * A crash therefore loses at most the block being buffered, and a reader can start decoding at any block boundary.
+ * <p>
+ * Each block is a complete gzip member or LZ4 frame, so the output of a stream, as well as several streams appended to
+ * one file, is readable with plain gzip or lz4 tools.
+ * <p>
+ * Not thread-safe. The appender's lock covers it, as it does the underlying stream.
+ */
+abstract class BlockCompressingOutputStream extends OutputStream {
+
+    enum Codec {
+        /** A gzip member per block, using the JDK's Deflater. */
+        GZIP,
+        /** An LZ4 frame per block, compressed in pure Java. Faster than gzip, but compresses less. */
+        LZ4;
+
+        static Codec parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    final OutputStream out;
+    private final byte[] block;
+    private final long flushInterval;
+    private int len;
+    private long blockStarted;
+
+    /**
+     * @param blockSize     uncompressed bytes per block
+     * @param flushInterval millis after which buffered bytes are written as a block on the next write or flush, or on
+     *                      every flush if not positive
+     */
+    BlockCompressingOutputStream(OutputStream out, int blockSize, long flushInterval) {
+        this.out = out;
+        this.block = new byte[blockSize];
+        this.flushInterval = flushInterval;
+    }
+
+    static BlockCompressingOutputStream create(Codec codec, OutputStream out, int blockSize, long flushInterval) {
+        switch (codec) {
+            case GZIP:
+                return new GzipBlockOutputStream(out, blockSize, flushInterval);
+            case LZ4:
+                return new Lz4BlockOutputStream(out, blockSize, flushInterval);
+            default:
+                throw new IllegalArgumentException(codec.toString());
+        }
+    }
+
+    /**
+     * Compresses and writes block[0, len) as one self-contained unit.
+     */
+    abstract void writeBlock(byte[] block, int len) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        if (len == block.length) {
+            endBlock();
+        }
+        if (len == 0) {
+            blockStarted = System.currentTimeMillis();
+        }
+        block[len++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int n) throws IOException {
+        while (n > 0) {
+            if (len == block.length) {
+                endBlock();
+            }
+            if (len == 0) {
+                blockStarted = System.currentTimeMillis();
+            }
+            int chunk = Math.min(n, block.length - len);
+            System.arraycopy(b, off, block, len, chunk);
+            len += chunk;
+            off += chunk;
+            n -= chunk;
+        }
+        if (expired()) {
+            endBlock();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes as a block only once the flush interval has passed, since flushing every event would
+     * leave nothing to compress.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (flushInterval <= 0 || expired()) {
+            endBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes whatever is buffered as a final block and releases the compressor, leaving the underlying stream open.
+     * Nothing can be written afterwards.
+     */
+    void finish() throws IOException {
+        endBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean expired() {
+        return len > 0 && System.currentTimeMillis() - blockStarted >= flushInterval;
+    }
+
+    /**
+     * Writes whatever is buffered as a block now, so that the next byte written starts a new one.
+     */
+    void endBlock() throws IOException {
+        if (len > 0) {
+            writeBlock(block, len);
+            len = 0;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reusable buffers shared by all threads, for the places that would otherwise keep one per thread in a ThreadLocal.
+ * With a ThreadLocal every new thread allocates its own buffer and leaves it behind, which with many short-lived
+ * threads, virtual threads in particular, means a fresh buffer per event. Here the number of buffers kept is bounded by
+ * the number of slots, whichever threads come and go.
+ * <p>
+ * Slots are spread over separate cache lines and picked by thread id, so a long-lived thread keeps getting its own
+ * buffer back much like from a ThreadLocal, while threads that collide probe a few neighbouring slots before allocating.
+ * Taking and returning are a single compare-and-set, no locks, so a thread never blocks on another, virtual or not.
+ */
+abstract class BufferPool<T> {
+
+    /**
+     * A pool of {@link JsonWriter}s that drops the ones grown beyond a capacity.
+     */
+    abstract static class Writers<W extends JsonWriter> extends BufferPool<W> {
+
+        private final int maxRetainedCapacity;
+
+        Writers(int maxRetainedCapacity) {
+            this.maxRetainedCapacity = maxRetainedCapacity;
+        }
+
+        @Override
+        boolean retain(W writer) {
+            return writer.capacity() <= maxRetainedCapacity;
+        }
+    }
+
+    /** References per slot, so that each slot sits on its own cache line. */
+    private static final int PADDING = 16;
+    private static final int PROBES = 4;
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final int probes;
+
+    BufferPool() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes number of slots, rounded up to a power of 2
+     */
+    BufferPool(int stripes) {
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        this.mask = n - 1;
+        this.probes = Math.min(PROBES, n);
+        this.slots = new AtomicReferenceArray<>(n * PADDING);
+    }
+
+    /**
+     * Creates a buffer when none is free.
+     */
+    abstract T create();
+
+    /**
+     * @return whether the buffer is worth keeping. Override to drop ones that have grown too large, so that one giant
+     * event doesn't pin a giant buffer forever.
+     */
+    boolean retain(T buffer) {
+        return true;
+    }
+
+    /**
+     * @return a buffer for the caller's exclusive use until it is released, in whatever state it was released in
+     */
+    T acquire() {
+        int stripe = stripe();
+        for (int i = 0; i < probes; i++) {
+            int slot = ((stripe + i) & mask) * PADDING;
+            T buffer = slots.get(slot);
+            if (null != buffer && slots.compareAndSet(slot, buffer, null)) {
+                return buffer;
+            }
+        }
+        return create();
+    }
+
+    /**
+     * Hands the buffer back for reuse, or drops it if it isn't worth keeping or there's no free slot.
+     */
+    void release(T buffer) {
+        if (!retain(buffer)) {
+            return;
+        }
+        int stripe = stripe();
+        for (int i = 0; i < probes; i++) {
+            int slot = ((stripe + i) & mask) * PADDING;
+            if (null == slots.get(slot) && slots.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return most buffers kept
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i <= mask; i++) {
+            if (null != slots.get(i * PADDING)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Thread ids are handed out in sequence, so consecutive threads land on consecutive slots.
+     */
+    private static int stripe() {
+        return (int) Thread.currentThread().getId();
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stable 64-bit ids for call sites, a call site being a logger name, format and line number, so that consumers can
+ * group events by id instead of hashing long format strings themselves. Each call site's id and its JSON form are
+ * computed once and cached, up to a bound past which arbitrary entries are evicted.
+ * <p>
+ * Also remembers which call sites have had their format written since the last {@link #reset()}, as on a new file,
+ * for the dictionary mode that writes each format only once per file.
+ */
+class CallSiteIds {
+
+    static final int DEFAULT_MAX_CALL_SITES = 10000;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    static class CallSite {
+        final long id;
+        final JsonFragment json;
+        /** The {@link #generation} the format was last written in. */
+        volatile int written = -1;
+
+        CallSite(long id) {
+            this.id = id;
+            this.json = JsonFragment.string(toHex(id));
+        }
+    }
+
+    private static class Key {
+        final String loggerName;
+        final String format;
+        final int line;
+
+        Key(String loggerName, String format, int line) {
+            this.loggerName = loggerName;
+            this.format = format;
+            this.line = line;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return line == key.line && equal(loggerName, key.loggerName) && equal(format, key.format);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = null == loggerName ? 0 : loggerName.hashCode();
+            h = 31 * h + (null == format ? 0 : format.hashCode());
+            return 31 * h + line;
+        }
+
+        private static boolean equal(String a, String b) {
+            return null == a ? null == b : a.equals(b);
+        }
+    }
+
+    private final int maxCallSites;
+    private final ConcurrentMap<Key, CallSite> callSites = new ConcurrentHashMap<>();
+    private volatile int generation;
+
+    CallSiteIds(int maxCallSites) {
+        this.maxCallSites = maxCallSites;
+    }
+
+    /**
+     * @param line the line number, or 0 if unknown
+     */
+    CallSite get(String loggerName, String format, int line) {
+        Key key = new Key(loggerName, format, line);
+        CallSite site = callSites.get(key);
+        if (null == site) {
+            site = new CallSite(hash(loggerName, format, line));
+            if (callSites.size() >= maxCallSites) {
+                Iterator<Key> evict = callSites.keySet().iterator();
+                if (evict.hasNext()) {
+                    evict.next();
+                    evict.remove();
+                }
+            }
+            CallSite raced = callSites.putIfAbsent(key, site);
+            if (null != raced) {
+                site = raced;
+            }
+        }
+        return site;
+    }
+
+    /**
+     * @return whether the site's format hasn't been written since the last reset
+     */
+    boolean isFirst(CallSite site) {
+        return site.written != generation;
+    }
+
+    /**
+     * Records that the site's format has been written. Racing threads may both write it, which is harmless.
+     */
+    void written(CallSite site) {
+        site.written = generation;
+    }
+
+    /**
+     * Forget which formats have been written, so that each is written again the next time its call site appears.
+     */
+    void reset() {
+        generation++;
+    }
+
+    /**
+     * FNV-1a over the chars of each part, with the bits spread at the end so that similar call sites don't get similar
+     * ids. Only depends on its arguments, so ids are the same across processes and restarts.
+     */
+    static long hash(String loggerName, String format, int line) {
+        long h = FNV_OFFSET_BASIS;
+        h = hash(h, loggerName);
+        h = hash(h, format);
+        h = (h ^ line) * FNV_PRIME;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        if (null != s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                h = (h ^ (c & 0xFF)) * FNV_PRIME;
+                h = (h ^ (c >>> 8)) * FNV_PRIME;
+            }
+        }
+        // Separates the parts, so that moving chars from one to the other changes the hash.
+        return (h ^ 0xFF) * FNV_PRIME;
+    }
+
+    static String toHex(long id) {
+        char[] hex = new char[16];
+        for (int i = 0; i < 16; i++) {
+            hex[i] = JsonWriter.HEX[(int) (id >>> (60 - 4 * i)) & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the line number of the logger invocation while avoiding caller data capture, which builds a full Throwable
+ * stack trace, wherever possible.
+ * <ul>
+ * <li>With a sample rate of N, caller data is only captured for 1 in N events of each logger.</li>
+ * <li>With the call-site cache enabled, the line last seen for a (logger name, format) pair is remembered. Unsampled
+ * events of a known call site reuse it, and the first event of a new call site is always captured. Two invocations
+ * with the same logger and format on different lines are indistinguishable without a stack, so they share whichever
+ * line was captured most recently.</li>
+ * </ul>
+ * Stack depth and which frames count as logging framework frames are governed by logback itself, see
+ * LoggerContext.setMaxCallerDataDepth and LoggerContext.getFrameworkPackages.
+ */
+class CallerLocator {
+
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final int sampleRate;
+    private final boolean cacheCallSites;
+    private final int maxEntries;
+
+    private final ConcurrentMap<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> callSites = new ConcurrentHashMap<>();
+    private final AtomicInteger callSiteCount = new AtomicInteger();
+
+    /**
+     * @param sampleRate     capture caller data for 1 in this many events per logger
+     * @param cacheCallSites remember lines per (logger name, format)
+     * @param maxEntries     bound on loggers and call sites tracked, beyond which tracking starts over
+     */
+    CallerLocator(int sampleRate, boolean cacheCallSites, int maxEntries) {
+        this.sampleRate = Math.max(1, sampleRate);
+        this.cacheCallSites = cacheCallSites;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the line number of the logger invocation, or null if unknown or not sampled
+     */
+    Integer lineNumber(ILoggingEvent e) {
+        if (e.hasCallerData()) {
+            // Already paid for, by someone else.
+            return remember(e, lineOf(e.getCallerData()));
+        }
+
+        boolean sampled = sampled(e.getLoggerName());
+        if (cacheCallSites && null != e.getMessage()) {
+            Integer cached = cached(e);
+            if (null != cached && !sampled) {
+                return cached;
+            }
+            // A new call site, or time to refresh a known one.
+            return remember(e, lineOf(e.getCallerData()));
+        }
+        return sampled ? lineOf(e.getCallerData()) : null;
+    }
+
+    private boolean sampled(String loggerName) {
+        if (sampleRate == 1) {
+            return true;
+        }
+        AtomicInteger counter = counters.get(loggerName);
+        if (null == counter) {
+            if (counters.size() >= maxEntries) {
+                counters.clear();
+            }
+            counter = new AtomicInteger();
+            AtomicInteger raced = counters.putIfAbsent(loggerName, counter);
+            if (null != raced) {
+                counter = raced;
+            }
+        }
+        return counter.getAndIncrement() % sampleRate == 0;
+    }
+
+    private Integer cached(ILoggingEvent e) {
+        ConcurrentMap<String, Integer> byFormat = callSites.get(e.getLoggerName());
+        return null == byFormat ? null : byFormat.get(e.getMessage());
+    }
+
+    private Integer remember(ILoggingEvent e, Integer line) {
+        if (!cacheCallSites || null == line || null == e.getMessage()) {
+            return line;
+        }
+        ConcurrentMap<String, Integer> byFormat = callSites.get(e.getLoggerName());
+        if (null == byFormat) {
+            byFormat = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Integer> raced = callSites.putIfAbsent(e.getLoggerName(), byFormat);
+            if (null != raced) {
+                byFormat = raced;
+            }
+        }
+        if (null == byFormat.put(e.getMessage(), line) && callSiteCount.incrementAndGet() > maxEntries) {
+            callSites.clear();
+            callSiteCount.set(0);
+        }
+        return line;
+    }
+
+    private static Integer lineOf(StackTraceElement[] callerData) {
+        return null != callerData && callerData.length > 0 ? callerData[0].getLineNumber() : null;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import org.slf4j.Marker;
+
+import java.util.Map;
+
+/**
+ * A mutable, reusable copy of the parts of an {@link ILoggingEvent} the encoder needs. Slots of this type are
+ * preallocated so that handing an event to another thread does not allocate.
+ */
+class CapturedEvent implements ILoggingEvent {
+
+    private String threadName;
+    private Level level;
+    private String message;
+    private Object[] argumentArray;
+    private String formattedMessage;
+    private String loggerName;
+    private LoggerContextVO loggerContextVO;
+    private IThrowableProxy throwableProxy;
+    private StackTraceElement[] callerData;
+    private Marker marker;
+    private Map<String, String> mdcPropertyMap;
+    private long timeStamp;
+    private Integer lineNumber;
+
+    /**
+     * Copies the event, first forcing it to capture everything that would otherwise be computed lazily on the current
+     * thread.
+     *
+     * @param lineNumber the line of the logger invocation, which can't be determined on another thread
+     */
+    void capture(ILoggingEvent e, Integer lineNumber) {
+        e.prepareForDeferredProcessing();
+        threadName = e.getThreadName();
+        level = e.getLevel();
+        message = e.getMessage();
+        argumentArray = e.getArgumentArray();
+        formattedMessage = e.getFormattedMessage();
+        loggerName = e.getLoggerName();
+        loggerContextVO = e.getLoggerContextVO();
+        throwableProxy = e.getThrowableProxy();
+        callerData = e.hasCallerData() ? e.getCallerData() : null;
+        marker = e.getMarker();
+        mdcPropertyMap = e.getMDCPropertyMap();
+        timeStamp = e.getTimeStamp();
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Drops references so that a slot doesn't keep garbage reachable.
+     */
+    void clear() {
+        threadName = null;
+        level = null;
+        message = null;
+        argumentArray = null;
+        formattedMessage = null;
+        loggerName = null;
+        loggerContextVO = null;
+        throwableProxy = null;
+        callerData = null;
+        marker = null;
+        mdcPropertyMap = null;
+        timeStamp = 0;
+        lineNumber = null;
+    }
+
+    Integer getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public String getThreadName() {
+        return threadName;
+    }
+
+    @Override
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public Object[] getArgumentArray() {
+        return argumentArray;
+    }
+
+    @Override
+    public String getFormattedMessage() {
+        return formattedMessage;
+    }
+
+    @Override
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    @Override
+    public LoggerContextVO getLoggerContextVO() {
+        return loggerContextVO;
+    }
+
+    @Override
+    public IThrowableProxy getThrowableProxy() {
+        return throwableProxy;
+    }
+
+    @Override
+    public StackTraceElement[] getCallerData() {
+        return null == callerData ? new StackTraceElement[0] : callerData;
+    }
+
+    @Override
+    public boolean hasCallerData() {
+        return null != callerData && callerData.length > 0;
+    }
+
+    @Override
+    public Marker getMarker() {
+        return marker;
+    }
+
+    @Override
+    public Map<String, String> getMDCPropertyMap() {
+        return mdcPropertyMap;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Map<String, String> getMdc() {
+        return mdcPropertyMap;
+    }
+
+    @Override
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    @Override
+    public void prepareForDeferredProcessing() {
+        // Already captured.
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.util.Arrays;
+
+/**
+ * A {@link JsonWriter} over a growable char buffer, for when the output has to end up as a String.
+ */
+class CharJsonWriter extends JsonWriter implements CharSequence {
+
+    private char[] buf;
+    private int len = 0;
+
+    CharJsonWriter(int initialCapacity) {
+        this.buf = new char[initialCapacity];
+    }
+
+    @Override
+    public JsonWriter raw(char c) {
+        ensure(1);
+        buf[len++] = c;
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(String s) {
+        int n = s.length();
+        ensure(n);
+        s.getChars(0, n, buf, len);
+        len += n;
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(char[] chars, int offset, int length) {
+        ensure(length);
+        System.arraycopy(chars, offset, buf, len, length);
+        len += length;
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(JsonFragment fragment) {
+        return raw(fragment.chars, 0, fragment.chars.length);
+    }
+
+    @Override
+    JsonWriter escaped(CharSequence s, int n) {
+        // Optimistically assume nothing needs escaping. ensure() is called again for escapes.
+        reserve(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (needsEscape(c)) {
+                escape(c);
+            } else {
+                if (len == buf.length || len == limit) {
+                    ensure(1);
+                }
+                buf[len++] = c;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter number(long v) {
+        if (v == Long.MIN_VALUE) {
+            return raw(Long.toString(v));
+        }
+        boolean negative = v < 0;
+        if (negative) {
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        ensure(negative ? digits + 1 : digits);
+        if (negative) {
+            buf[len++] = '-';
+        }
+        int p = len + digits;
+        len = p;
+        do {
+            buf[--p] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        return this;
+    }
+
+    @Override
+    void reset() {
+        len = 0;
+    }
+
+    @Override
+    void truncate(int size) {
+        len = size;
+    }
+
+    @Override
+    int size() {
+        return len;
+    }
+
+    @Override
+    int capacity() {
+        return buf.length;
+    }
+
+    @Override
+    public int length() {
+        return len;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= len) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return buf[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(buf, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len);
+    }
+
+    private void escape(char c) {
+        if (c < 0xA0) {
+            char[] escape = ESCAPES[c];
+            ensure(escape.length);
+            System.arraycopy(escape, 0, buf, len, escape.length);
+            len += escape.length;
+        } else {
+            ensure(6);
+            buf[len++] = '\\';
+            buf[len++] = 'u';
+            buf[len++] = HEX[(c >> 12) & 0xF];
+            buf[len++] = HEX[(c >> 8) & 0xF];
+            buf[len++] = HEX[(c >> 4) & 0xF];
+            buf[len++] = HEX[c & 0xF];
+        }
+    }
+
+    /**
+     * Makes room for up to n more without holding them against the limit, for writes that check it as they go.
+     */
+    private void reserve(int n) {
+        ensure(Math.min(n, limit - len));
+    }
+
+    private void ensure(int more) {
+        if (len + more > limit) {
+            throw LimitExceededException.INSTANCE;
+        }
+        if (len + more > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + more));
+        }
+    }
+}
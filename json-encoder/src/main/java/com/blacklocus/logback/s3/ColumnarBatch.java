@@ -0,0 +1,605 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import com.blacklocus.logback.s3.avro.LogLevel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Up to a fixed number of {@link com.blacklocus.logback.s3.avro.RawLog}-shaped rows held column by column, and the
+ * block format they are written in. Each block stands alone, so files of blocks can be appended to and concatenated.
+ * <p>
+ * A block is {@link #MAGIC}, the row count as a varint and the column count as a byte, then a directory entry per
+ * column: its {@link ColumnarReader.Column} id and encoding as bytes, its decoded and stored lengths as varints. The
+ * columns follow in directory order, so a reader can skip the ones it doesn't need without decoding them. Columns are
+ * encoded by type:
+ * <ul>
+ * <li>timestamp: the first value, the first delta, then the difference of each delta from the one before, as zigzag
+ * varints. Steady logging makes these near zero, a byte or so per row.</li>
+ * <li>loggerName, format: a dictionary of the distinct strings in the block, then a varint id per row.</li>
+ * <li>logLevel: 3 bits per row.</li>
+ * <li>lineNumber: runs of repeated values, each as value and run length.</li>
+ * <li>rendered, args: length prefixed UTF-8 strings, a length of 0 meaning null and n + 1 meaning n bytes.</li>
+ * <li>context: a dictionary of keys, then per row the entry count and each entry as key id and value.</li>
+ * </ul>
+ * Columns that deflate to less are stored deflated.
+ */
+class ColumnarBatch {
+
+    static final int MAGIC = 0x524C4331; // RLC1
+
+    static final byte ENCODING_PLAIN = 0;
+    static final byte ENCODING_DEFLATE = 1;
+
+    private static final int LEVEL_BITS = 3;
+    private static final int NULL_LEVEL = 7;
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    /** Bounds the rows a reader will allocate for, against corrupt row counts. */
+    static final int MAX_ROWS = 1 << 20;
+
+    int capacity;
+    int size;
+    long[] timestamps;
+    String[] loggerNames;
+    LogLevel[] levels;
+    Integer[] lineNumbers;
+    String[] rendered;
+    String[] formats;
+    final List<List<CharSequence>> args = new ArrayList<>();
+    final List<Map<String, String>> contexts = new ArrayList<>();
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+
+    ColumnarBatch(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.loggerNames = new String[capacity];
+        this.levels = new LogLevel[capacity];
+        this.lineNumbers = new Integer[capacity];
+        this.rendered = new String[capacity];
+        this.formats = new String[capacity];
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void add(long timestamp, String loggerName, LogLevel level, Integer lineNumber, String rendered, String format,
+             List<CharSequence> args, Map<String, String> context) {
+        timestamps[size] = timestamp;
+        loggerNames[size] = loggerName;
+        levels[size] = level;
+        lineNumbers[size] = lineNumber;
+        this.rendered[size] = rendered;
+        formats[size] = format;
+        this.args.add(args);
+        contexts.add(context);
+        size++;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            loggerNames[i] = null;
+            levels[i] = null;
+            lineNumbers[i] = null;
+            rendered[i] = null;
+            formats[i] = null;
+        }
+        args.clear();
+        contexts.clear();
+        size = 0;
+    }
+
+    /**
+     * Writes the rows as one block, with one write call.
+     *
+     * @param deflate whether to deflate columns where that saves space
+     */
+    void writeTo(OutputStream out, boolean deflate) throws IOException {
+        ColumnarReader.Column[] columns = ColumnarReader.Column.values();
+        Bytes header = new Bytes();
+        Bytes body = new Bytes();
+        header.writeInt(MAGIC);
+        header.writeVarLong(size);
+        header.write(columns.length);
+        for (ColumnarReader.Column column : columns) {
+            Bytes data = new Bytes();
+            encode(column, data);
+            byte encoding = ENCODING_PLAIN;
+            byte[] stored = data.array();
+            int storedLength = data.size();
+            if (deflate) {
+                byte[] deflated = deflate(data);
+                if (null != deflated) {
+                    encoding = ENCODING_DEFLATE;
+                    stored = deflated;
+                    storedLength = deflated.length;
+                }
+            }
+            header.write(column.id);
+            header.write(encoding);
+            header.writeVarLong(data.size());
+            header.writeVarLong(storedLength);
+            body.write(stored, 0, storedLength);
+        }
+        body.writeTo(header);
+        header.writeTo(out);
+    }
+
+    /**
+     * Replaces the rows with the next block from in, decoding only the given columns and leaving the rest null. Grows
+     * to fit the block if need be.
+     *
+     * @return false if in had no more blocks
+     */
+    boolean readFrom(InputStream in, Set<ColumnarReader.Column> projection) throws IOException {
+        clear();
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        int magic = first << 24 | readByte(in) << 16 | readByte(in) << 8 | readByte(in);
+        if (magic != MAGIC) {
+            throw new IOException("Not a columnar block");
+        }
+        long rows = readVarLong(in);
+        if (rows > MAX_ROWS) {
+            throw new IOException("Block of " + rows + " rows is over the limit of " + MAX_ROWS);
+        }
+        if (rows > capacity) {
+            allocate((int) rows);
+        }
+        size = (int) rows;
+        int columnCount = readByte(in);
+        int[] ids = new int[columnCount];
+        int[] encodings = new int[columnCount];
+        long[] lengths = new long[columnCount];
+        long[] storedLengths = new long[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            ids[i] = readByte(in);
+            encodings[i] = readByte(in);
+            lengths[i] = readVarLong(in);
+            storedLengths[i] = readVarLong(in);
+        }
+        EnumSet<ColumnarReader.Column> decoded = EnumSet.noneOf(ColumnarReader.Column.class);
+        for (int i = 0; i < columnCount; i++) {
+            ColumnarReader.Column column = ColumnarReader.Column.byId(ids[i]);
+            if (null == column || !projection.contains(column)) {
+                // Unknown columns, from a later version, are skipped like unwanted ones.
+                skipFully(in, storedLengths[i]);
+                continue;
+            }
+            byte[] stored = new byte[(int) storedLengths[i]];
+            readFully(in, stored);
+            byte[] data = encodings[i] == ENCODING_DEFLATE ? inflate(stored, (int) lengths[i]) : stored;
+            decode(column, new Cursor(data));
+            decoded.add(column);
+        }
+        for (int i = 0; i < size; i++) {
+            if (!decoded.contains(ColumnarReader.Column.ARGS)) {
+                args.add(null);
+            }
+            if (!decoded.contains(ColumnarReader.Column.CONTEXT)) {
+                contexts.add(null);
+            }
+        }
+        return true;
+    }
+
+    private void encode(ColumnarReader.Column column, Bytes out) {
+        switch (column) {
+            case TIMESTAMP:
+                long previous = 0;
+                long previousDelta = 0;
+                for (int i = 0; i < size; i++) {
+                    long delta = timestamps[i] - previous;
+                    out.writeZigZag(i < 2 ? delta : delta - previousDelta);
+                    previous = timestamps[i];
+                    previousDelta = delta;
+                }
+                break;
+            case LOGGER_NAME:
+                writeDictionaryCoded(loggerNames, out);
+                break;
+            case LOG_LEVEL:
+                int bits = 0;
+                int pending = 0;
+                for (int i = 0; i < size; i++) {
+                    bits |= (null == levels[i] ? NULL_LEVEL : levels[i].ordinal()) << pending;
+                    pending += LEVEL_BITS;
+                    while (pending >= 8) {
+                        out.write(bits & 0xFF);
+                        bits >>>= 8;
+                        pending -= 8;
+                    }
+                }
+                if (pending > 0) {
+                    out.write(bits & 0xFF);
+                }
+                break;
+            case LINE_NUMBER:
+                for (int i = 0; i < size; ) {
+                    Integer value = lineNumbers[i];
+                    int run = 1;
+                    while (i + run < size && equal(value, lineNumbers[i + run])) {
+                        run++;
+                    }
+                    out.writeVarLong(null == value ? 0 : zigZag(value) + 1);
+                    out.writeVarLong(run);
+                    i += run;
+                }
+                break;
+            case RENDERED:
+                for (int i = 0; i < size; i++) {
+                    out.writeString(rendered[i]);
+                }
+                break;
+            case FORMAT:
+                writeDictionaryCoded(formats, out);
+                break;
+            case ARGS:
+                for (int i = 0; i < size; i++) {
+                    List<CharSequence> row = args.get(i);
+                    out.writeVarLong(null == row ? 0 : row.size() + 1);
+                    if (null != row) {
+                        for (CharSequence arg : row) {
+                            out.writeString(arg);
+                        }
+                    }
+                }
+                break;
+            case CONTEXT:
+                Map<String, Integer> keys = new LinkedHashMap<>();
+                Bytes rows = new Bytes();
+                for (int i = 0; i < size; i++) {
+                    Map<String, String> row = contexts.get(i);
+                    rows.writeVarLong(null == row ? 0 : row.size() + 1);
+                    if (null != row) {
+                        for (Map.Entry<String, String> entry : row.entrySet()) {
+                            rows.writeVarLong(idOf(entry.getKey(), keys));
+                            rows.writeString(entry.getValue());
+                        }
+                    }
+                }
+                writeDictionary(keys, out);
+                out.write(rows.array(), 0, rows.size());
+                break;
+        }
+    }
+
+    private void decode(ColumnarReader.Column column, Cursor in) throws IOException {
+        switch (column) {
+            case TIMESTAMP:
+                long previous = 0;
+                long previousDelta = 0;
+                for (int i = 0; i < size; i++) {
+                    long delta = i < 2 ? in.readZigZag() : previousDelta + in.readZigZag();
+                    timestamps[i] = previous + delta;
+                    previous = timestamps[i];
+                    previousDelta = delta;
+                }
+                break;
+            case LOGGER_NAME:
+                readDictionaryCoded(in, loggerNames);
+                break;
+            case LOG_LEVEL:
+                int bits = 0;
+                int pending = 0;
+                for (int i = 0; i < size; i++) {
+                    while (pending < LEVEL_BITS) {
+                        bits |= in.readByte() << pending;
+                        pending += 8;
+                    }
+                    int code = bits & NULL_LEVEL;
+                    levels[i] = code < LEVELS.length ? LEVELS[code] : null;
+                    bits >>>= LEVEL_BITS;
+                    pending -= LEVEL_BITS;
+                }
+                break;
+            case LINE_NUMBER:
+                for (int i = 0; i < size; ) {
+                    long code = in.readVarLong();
+                    long run = in.readVarLong();
+                    Integer value = code == 0 ? null : (int) unZigZag(code - 1);
+                    for (long r = 0; r < run && i < size; r++) {
+                        lineNumbers[i++] = value;
+                    }
+                }
+                break;
+            case RENDERED:
+                for (int i = 0; i < size; i++) {
+                    rendered[i] = in.readString();
+                }
+                break;
+            case FORMAT:
+                readDictionaryCoded(in, formats);
+                break;
+            case ARGS:
+                for (int i = 0; i < size; i++) {
+                    long count = in.readVarLong();
+                    List<CharSequence> row = null;
+                    if (count > 0) {
+                        row = new ArrayList<>((int) count - 1);
+                        for (long a = 1; a < count; a++) {
+                            row.add(in.readString());
+                        }
+                    }
+                    args.add(row);
+                }
+                break;
+            case CONTEXT:
+                String[] keys = readDictionary(in);
+                for (int i = 0; i < size; i++) {
+                    long count = in.readVarLong();
+                    Map<String, String> row = null;
+                    if (count > 0) {
+                        row = new HashMap<>();
+                        for (long c = 1; c < count; c++) {
+                            row.put(keys[(int) in.readVarLong()], in.readString());
+                        }
+                    }
+                    contexts.add(row);
+                }
+                break;
+        }
+    }
+
+    private void writeDictionaryCoded(String[] values, Bytes out) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = idOf(values[i], dictionary);
+        }
+        writeDictionary(dictionary, out);
+        for (int i = 0; i < size; i++) {
+            out.writeVarLong(ids[i]);
+        }
+    }
+
+    private void readDictionaryCoded(Cursor in, String[] into) throws IOException {
+        String[] dictionary = readDictionary(in);
+        for (int i = 0; i < size; i++) {
+            into[i] = dictionary[(int) in.readVarLong()];
+        }
+    }
+
+    private static int idOf(String value, Map<String, Integer> dictionary) {
+        Integer id = dictionary.get(value);
+        if (null == id) {
+            id = dictionary.size();
+            dictionary.put(value, id);
+        }
+        return id;
+    }
+
+    private static void writeDictionary(Map<String, Integer> dictionary, Bytes out) {
+        out.writeVarLong(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            out.writeString(value);
+        }
+    }
+
+    private static String[] readDictionary(Cursor in) throws IOException {
+        String[] dictionary = new String[(int) in.readVarLong()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readString();
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return data deflated, or null if that doesn't make it smaller
+     */
+    private byte[] deflate(Bytes data) {
+        deflater.reset();
+        deflater.setInput(data.array(), 0, data.size());
+        deflater.finish();
+        byte[] deflated = new byte[data.size()];
+        int length = 0;
+        while (!deflater.finished() && length < deflated.length) {
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        if (!deflater.finished() || length >= data.size()) {
+            return null;
+        }
+        byte[] exact = new byte[length];
+        System.arraycopy(deflated, 0, exact, 0, length);
+        return exact;
+    }
+
+    private byte[] inflate(byte[] stored, int length) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored);
+        byte[] data = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, n, length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != length) {
+                throw new IOException("Column inflated to " + n + " bytes, expected " + length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt column", e);
+        }
+        return data;
+    }
+
+    static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static boolean equal(Integer a, Integer b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated columnar block");
+        }
+        return b;
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] into) throws IOException {
+        for (int n = 0; n < into.length; ) {
+            int read = in.read(into, n, into.length - n);
+            if (read < 0) {
+                throw new EOFException("Truncated columnar block");
+            }
+            n += read;
+        }
+    }
+
+    /**
+     * Skips with InputStream.skip, which file streams implement as a seek, so skipped columns aren't read at all.
+     */
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                readByte(in);
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /** A ByteArrayOutputStream with varint and string writes, and access to its array. */
+    static class Bytes extends ByteArrayOutputStream {
+
+        byte[] array() {
+            return buf;
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void writeZigZag(long v) {
+            writeVarLong(zigZag(v));
+        }
+
+        void writeString(CharSequence s) {
+            if (null == s) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = s.toString().getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    /** Reads what {@link Bytes} writes. */
+    private static class Cursor {
+
+        private final byte[] data;
+        private int position;
+
+        Cursor(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (position == data.length) {
+                throw new EOFException("Truncated column");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+        }
+
+        long readZigZag() throws IOException {
+            return unZigZag(readVarLong());
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            int n = (int) length - 1;
+            if (n > data.length - position) {
+                throw new EOFException("Truncated column");
+            }
+            String s = new String(data, position, n, StandardCharsets.UTF_8);
+            position += n;
+            return s;
+        }
+    }
+}
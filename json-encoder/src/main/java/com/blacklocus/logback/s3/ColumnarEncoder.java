@@ -0,0 +1,232 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+import com.blacklocus.logback.s3.avro.LogLevel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the fields of {@link com.blacklocus.logback.s3.avro.RawLog} in column oriented blocks rather than a record at
+ * a time, for archives that are mostly scanned by a few fields. See {@link ColumnarBatch} for the format and
+ * {@link ColumnarReader} to read it. Events are buffered until a block is full, or the appender closes the file, so
+ * this suits rolling archives more than tailing.
+ *
+ * <pre>
+ * &lt;appender name="columnar" class="ch.qos.logback.core.rolling.RollingFileAppender"&gt;
+ *   &lt;file&gt;/tmp/blacklocus.rlc&lt;/file&gt;
+ *   ...
+ *   &lt;encoder class="com.blacklocus.logback.s3.ColumnarEncoder"&gt;
+ *     &lt;batchSize&gt;4096&lt;/batchSize&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class ColumnarEncoder<E> extends EncoderBase<E> {
+
+    private static final String DEBUG_NAME = "[ColumnarEncoder]";
+
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final ArgumentWriters argumentWriters = new ArgumentWriters();
+    private final BufferPool<CharJsonWriter> argWriters = new BufferPool.Writers<CharJsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        CharJsonWriter create() {
+            return new CharJsonWriter(256);
+        }
+    };
+    private PatternLayout renderPatternLayout;
+    private CallerLocator callerLocator = new CallerLocator(1, false, CallerLocator.DEFAULT_MAX_ENTRIES);
+
+    // Guarded by this.
+    private ColumnarBatch batch;
+
+    // Configurable things
+
+    String pattern;
+    boolean lineNumbers = false;
+    int lineNumberSampleRate = 1;
+    boolean lineNumberCache = false;
+    int batchSize = ColumnarWriter.DEFAULT_BATCH_SIZE;
+    boolean compress = true;
+    int argMaxSize = 0;
+    int argMaxElements = 0;
+    int argMaxDepth = 0;
+    boolean debug = false;
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public void setLineNumbers(boolean lineNumbers) {
+        this.lineNumbers = lineNumbers;
+    }
+
+    /**
+     * See {@link AvroEncoder#setLineNumberSampleRate(int)}.
+     */
+    public void setLineNumberSampleRate(int lineNumberSampleRate) {
+        this.lineNumberSampleRate = lineNumberSampleRate;
+    }
+
+    /**
+     * See {@link AvroEncoder#setLineNumberCache(boolean)}.
+     */
+    public void setLineNumberCache(boolean lineNumberCache) {
+        this.lineNumberCache = lineNumberCache;
+    }
+
+    /**
+     * Events per block. Bigger blocks compress better but hold more events in memory until written. Defaults to 4096.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Deflate columns where that saves space. Defaults to true.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * See {@link JsonEncoder#setArgMaxSize(int)}.
+     */
+    public void setArgMaxSize(int argMaxSize) {
+        this.argMaxSize = argMaxSize;
+    }
+
+    /**
+     * See {@link JsonEncoder#setArgMaxElements(int)}.
+     */
+    public void setArgMaxElements(int argMaxElements) {
+        this.argMaxElements = argMaxElements;
+    }
+
+    /**
+     * See {@link JsonEncoder#setArgMaxDepth(int)}.
+     */
+    public void setArgMaxDepth(int argMaxDepth) {
+        this.argMaxDepth = argMaxDepth;
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    @Override
+    public void start() {
+        if (batchSize <= 0 || batchSize > ColumnarBatch.MAX_ROWS) {
+            addWarn("batchSize must be between 1 and " + ColumnarBatch.MAX_ROWS + ", using "
+                    + ColumnarWriter.DEFAULT_BATCH_SIZE + ".");
+            batchSize = ColumnarWriter.DEFAULT_BATCH_SIZE;
+        }
+
+        callerLocator = new CallerLocator(lineNumberSampleRate, lineNumberCache, CallerLocator.DEFAULT_MAX_ENTRIES);
+        argumentWriters.limit(argMaxSize, argMaxElements, argMaxDepth);
+
+        if (null != pattern) {
+            PatternLayout renderPatternLayout = new PatternLayout();
+            renderPatternLayout.setContext(context);
+            renderPatternLayout.setPattern(pattern);
+            renderPatternLayout.start();
+            this.renderPatternLayout = renderPatternLayout;
+        }
+
+        super.start();
+    }
+
+    @Override
+    public void init(OutputStream os) throws IOException {
+        super.init(os);
+        synchronized (this) {
+            // Rows left over from a file that failed to close don't belong in this one.
+            batch = new ColumnarBatch(batchSize);
+        }
+    }
+
+    @Override
+    public void doEncode(E event) throws IOException {
+        if (!(event instanceof ILoggingEvent)) {
+            return;
+        }
+        ILoggingEvent e = (ILoggingEvent) event;
+
+        // Everything that can be done without the batch is, so that callers only contend for the copy into it.
+        Integer lineNumber;
+        String rendered;
+        List<CharSequence> args;
+        try {
+            lineNumber = lineNumbers ? callerLocator.lineNumber(e) : null;
+            rendered = null == renderPatternLayout ? null : renderPatternLayout.doLayout(e);
+            Object[] argumentArray = e.getArgumentArray();
+            args = new ArrayList<>(null == argumentArray ? 0 : argumentArray.length);
+            argumentWriters.stringify(argumentArray, args, argWriters);
+        } catch (Exception ex) {
+            debug(ex);
+            return;
+        }
+        Map<String, String> context = new HashMap<>(e.getMDCPropertyMap());
+        LogLevel level = LogLevel.valueOf(e.getLevel().toString());
+
+        synchronized (this) {
+            batch.add(e.getTimeStamp(), e.getLoggerName(), level, lineNumber, rendered, e.getMessage(), args, context);
+            if (batch.isFull()) {
+                writeBatch();
+            }
+        }
+    }
+
+    /**
+     * Writes the partial block, if any. The appender closes the underlying stream itself.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (null != batch) {
+                writeBatch();
+                outputStream.flush();
+            }
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            batch.writeTo(outputStream, compress);
+        } finally {
+            // A block that failed to write is dropped rather than retried into a stream in an unknown state.
+            batch.clear();
+        }
+    }
+
+    void debug(Object message) {
+        if (debug) {
+            if (message instanceof Throwable) {
+                ((Throwable) message).printStackTrace(System.err);
+            } else {
+                System.err.println(DEBUG_NAME + " " + message);
+            }
+        }
+    }
+}
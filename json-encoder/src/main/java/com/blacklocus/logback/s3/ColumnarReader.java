@@ -0,0 +1,131 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import com.blacklocus.logback.s3.avro.RawLog;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads files written by {@link ColumnarEncoder} or {@link ColumnarWriter} back as {@link RawLog}s, decoding only the
+ * columns asked for. Fields of columns not asked for are left null, and their bytes are skipped rather than read, so
+ * e.g. a scan of levels and timestamps touches a small fraction of the file.
+ * <pre>
+ * try (ColumnarReader reader = new ColumnarReader(in, Column.TIMESTAMP, Column.LOG_LEVEL)) {
+ *     for (RawLog log; null != (log = reader.read()); ) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ColumnarReader implements Closeable {
+
+    /** The columns of a block, with their ids in the file. */
+    public enum Column {
+        TIMESTAMP(0),
+        LOGGER_NAME(1),
+        LOG_LEVEL(2),
+        LINE_NUMBER(3),
+        RENDERED(4),
+        FORMAT(5),
+        ARGS(6),
+        CONTEXT(7);
+
+        final int id;
+
+        Column(int id) {
+            this.id = id;
+        }
+
+        static Column byId(int id) {
+            for (Column column : values()) {
+                if (column.id == id) {
+                    return column;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final InputStream in;
+    private final Set<Column> projection;
+    private final ColumnarBatch batch;
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter(TimestampFormatter.Format.ISO);
+    private int next;
+
+    /**
+     * @param columns to decode, or none for all of them
+     */
+    public ColumnarReader(InputStream in, Column... columns) {
+        this.in = in;
+        this.projection = columns.length == 0 ? EnumSet.allOf(Column.class) : EnumSet.copyOf(Arrays.asList(columns));
+        this.batch = new ColumnarBatch(ColumnarWriter.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @return the next record, or null at the end of the stream
+     */
+    public RawLog read() throws IOException {
+        while (next == batch.size) {
+            if (!batch.readFrom(in, projection)) {
+                return null;
+            }
+            next = 0;
+        }
+        int i = next++;
+        RawLog log = new RawLog();
+        if (projection.contains(Column.TIMESTAMP)) {
+            log.setLogDateTime(timestampFormatter.format(batch.timestamps[i]));
+        }
+        log.setLoggerName(batch.loggerNames[i]);
+        log.setLogLevel(batch.levels[i]);
+        log.setLineNumber(batch.lineNumbers[i]);
+        log.setRendered(batch.rendered[i]);
+        log.setFormat(batch.formats[i]);
+        log.setArgs(batch.args.get(i));
+        Map<String, String> context = batch.contexts.get(i);
+        if (null != context) {
+            log.setContext(new HashMap<CharSequence, CharSequence>(context));
+        }
+        return log;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ColumnarReader file [column...]");
+            System.exit(1);
+        }
+        Column[] columns = new Column[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            columns[i - 1] = Column.valueOf(args[i].toUpperCase());
+        }
+        try (ColumnarReader reader = new ColumnarReader(new BufferedInputStream(new FileInputStream(args[0])), columns)) {
+            for (RawLog log; null != (log = reader.read()); ) {
+                System.out.println(log);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import com.blacklocus.logback.s3.avro.RawLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link RawLog}s in the columnar block format of {@link ColumnarBatch}, e.g. to convert archived Avro files
+ * into something {@link ColumnarReader} can scan a few columns of cheaply. Not thread safe.
+ */
+public class ColumnarWriter implements Closeable, Flushable {
+
+    static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final OutputStream out;
+    private final ColumnarBatch batch;
+    private final boolean compress;
+
+    public ColumnarWriter(OutputStream out) {
+        this(out, DEFAULT_BATCH_SIZE, true);
+    }
+
+    /**
+     * @param batchSize rows per block. Bigger blocks compress better, and take longer to get to a reader.
+     * @param compress whether to deflate columns where that saves space
+     */
+    public ColumnarWriter(OutputStream out, int batchSize, boolean compress) {
+        if (batchSize <= 0 || batchSize > ColumnarBatch.MAX_ROWS) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + ColumnarBatch.MAX_ROWS);
+        }
+        this.out = out;
+        this.batch = new ColumnarBatch(batchSize);
+        this.compress = compress;
+    }
+
+    public void write(RawLog log) throws IOException {
+        Long timestamp = LogIndexReader.parseTimestamp(null == log.getLogDateTime() ? null : log.getLogDateTime().toString());
+        if (null == timestamp) {
+            throw new IOException("Unparseable logDateTime '" + log.getLogDateTime() + "'");
+        }
+        Map<String, String> context = null;
+        if (null != log.getContext()) {
+            context = new HashMap<>();
+            for (Map.Entry<CharSequence, CharSequence> entry : log.getContext().entrySet()) {
+                context.put(entry.getKey().toString(), null == entry.getValue() ? null : entry.getValue().toString());
+            }
+        }
+        batch.add(timestamp, string(log.getLoggerName()), log.getLogLevel(), log.getLineNumber(),
+                string(log.getRendered()), string(log.getFormat()),
+                null == log.getArgs() ? null : new ArrayList<>(log.getArgs()), context);
+        if (batch.isFull()) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Writes what's buffered as a block, even if short, and flushes the stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBatch();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBatch();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            batch.writeTo(out, compress);
+        } finally {
+            // A block that failed to write is dropped rather than written again, after whatever part of it made it.
+            batch.clear();
+        }
+    }
+
+    private static String string(CharSequence s) {
+        return null == s ? null : s.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ColumnarWriter avro-file columnar-file");
+            System.exit(1);
+        }
+        try (RawLogReader reader = new RawLogReader(new BufferedInputStream(new FileInputStream(args[0])));
+             ColumnarWriter writer = new ColumnarWriter(new BufferedOutputStream(new FileOutputStream(args[1])))) {
+            while (reader.hasNext()) {
+                writer.write(reader.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the MDC as the context object straight from the event's property map. The quoted key and the separator that
+ * follows it are cached per key, since the same handful of keys recur on every event.
+ */
+class ContextWriter {
+
+    private static final int MAX_CACHED_KEYS = 1000;
+
+    private final Set<String> includes;
+    private final Set<String> excludes;
+    private final int maxValueLength;
+    // Keys are supposed to be a small fixed set, but might not be.
+    private final FragmentCache<String> keys = new FragmentCache<String>(MAX_CACHED_KEYS) {
+        @Override
+        JsonFragment create(String key) {
+            CharJsonWriter json = new CharJsonWriter(key.length() + 4);
+            json.string(key).raw(": ");
+            return JsonFragment.raw(json.toString());
+        }
+    };
+
+    /**
+     * @param includes       only these keys are written, or all keys if empty
+     * @param excludes       these keys are never written
+     * @param maxValueLength longer values are truncated, unlimited if not positive
+     */
+    ContextWriter(Collection<String> includes, Collection<String> excludes, int maxValueLength) {
+        this.includes = new HashSet<>(includes);
+        this.excludes = new HashSet<>(excludes);
+        this.maxValueLength = maxValueLength > 0 ? maxValueLength : Integer.MAX_VALUE;
+    }
+
+    void write(Map<String, String> mdc, JsonWriter out) {
+        out.raw('{');
+        boolean first = true;
+        for (Map.Entry<String, String> entry : mdc.entrySet()) {
+            String key = entry.getKey();
+            if ((!includes.isEmpty() && !includes.contains(key)) || excludes.contains(key)) {
+                continue;
+            }
+            if (!first) {
+                out.raw(", ");
+            }
+            first = false;
+            out.raw(keys.get(key)).string(entry.getValue(), maxValueLength);
+        }
+        out.raw('}');
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Called by {@link JsonEncoder} with metrics enabled for every event it encodes or fails to. Called on the encoding
+ * thread, so implementations should be quick and thread-safe. Exceptions thrown by listeners are ignored.
+ */
+public interface EncoderListener {
+
+    /**
+     * @param size       as in {@link EncoderMetricsMXBean#getEncodedSize()}
+     * @param stageNanos time spent per stage, indexed by {@link EncoderMetrics.Stage} ordinal. Reused, don't keep it.
+     */
+    void encoded(ILoggingEvent event, int size, long[] stageNanos);
+
+    void failed(ILoggingEvent event, Exception cause);
+}
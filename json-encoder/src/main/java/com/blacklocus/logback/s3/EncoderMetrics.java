@@ -0,0 +1,183 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Counts and times what {@link JsonEncoder} does when its metrics are enabled: events, encoded size, failures by
+ * exception type, and per-stage durations. Updates are striped by thread and lock-free.
+ */
+public class EncoderMetrics implements EncoderMetricsMXBean {
+
+    /**
+     * Parts of encoding an event that are timed separately. TOTAL covers all of it, including what's between stages.
+     */
+    public enum Stage {
+        CALLER_DATA,
+        RENDER,
+        ARGS,
+        CONTEXT,
+        EXCEPTION,
+        TOTAL
+    }
+
+    /** Exception types beyond this many are counted as {@link #OTHER_FAILURES}. */
+    private static final int MAX_FAILURE_TYPES = 100;
+    private static final String OTHER_FAILURES = "other";
+
+    private final StripedCounter events = new StripedCounter();
+    private final StripedCounter size = new StripedCounter();
+    private final StripedCounter failures = new StripedCounter();
+    private final ConcurrentMap<String, StripedCounter> failuresByType = new ConcurrentHashMap<>();
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final List<EncoderListener> listeners = new CopyOnWriteArrayList<>();
+
+    public EncoderMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void addListener(EncoderListener listener) {
+        listeners.add(listener);
+    }
+
+    void encoded(ILoggingEvent event, int size, long[] stageNanos) {
+        events.increment();
+        this.size.add(size);
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].record(stageNanos[i]);
+        }
+        for (EncoderListener listener : listeners) {
+            try {
+                listener.encoded(event, size, stageNanos);
+            } catch (RuntimeException ignored) {
+                // Listeners don't get to break logging.
+            }
+        }
+    }
+
+    void failed(ILoggingEvent event, Exception cause) {
+        failures.increment();
+        failureCounter(cause.getClass().getName()).increment();
+        for (EncoderListener listener : listeners) {
+            try {
+                listener.failed(event, cause);
+            } catch (RuntimeException ignored) {
+                // Listeners don't get to break logging.
+            }
+        }
+    }
+
+    private StripedCounter failureCounter(String type) {
+        StripedCounter counter = failuresByType.get(type);
+        if (null == counter) {
+            if (failuresByType.size() >= MAX_FAILURE_TYPES) {
+                type = OTHER_FAILURES;
+            }
+            StripedCounter created = new StripedCounter();
+            counter = failuresByType.putIfAbsent(type, created);
+            if (null == counter) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public long getEventCount() {
+        return events.sum();
+    }
+
+    @Override
+    public long getEncodedSize() {
+        return size.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByType() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, StripedCounter> entry : failuresByType.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getStageNanosMean() {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            nanos.put(stage.name(), stage(stage).mean());
+        }
+        return nanos;
+    }
+
+    @Override
+    public Map<String, Long> getStageNanosP50() {
+        return percentiles(50);
+    }
+
+    @Override
+    public Map<String, Long> getStageNanosP99() {
+        return percentiles(99);
+    }
+
+    @Override
+    public Map<String, Long> getStageNanosP999() {
+        return percentiles(99.9);
+    }
+
+    @Override
+    public Map<String, Long> getStageNanosMax() {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            nanos.put(stage.name(), stage(stage).max());
+        }
+        return nanos;
+    }
+
+    @Override
+    public void reset() {
+        events.reset();
+        size.reset();
+        failures.reset();
+        failuresByType.clear();
+        for (LatencyHistogram stage : stages) {
+            stage.reset();
+        }
+    }
+
+    LatencyHistogram stage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    private Map<String, Long> percentiles(double percentile) {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            nanos.put(stage.name(), stage(stage).percentile(percentile));
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.util.Map;
+
+/**
+ * What {@link EncoderMetrics} exposes over JMX, registered as com.blacklocus.logback.s3:type=JsonEncoder,name=...
+ * Stage timings are keyed by {@link EncoderMetrics.Stage} name.
+ */
+public interface EncoderMetricsMXBean {
+
+    long getEventCount();
+
+    /**
+     * UTF-8 bytes with directUtf8, chars otherwise, which is the same for ASCII output.
+     */
+    long getEncodedSize();
+
+    long getFailureCount();
+
+    /**
+     * @return failures by exception class name
+     */
+    Map<String, Long> getFailuresByType();
+
+    Map<String, Long> getStageNanosMean();
+
+    Map<String, Long> getStageNanosP50();
+
+    Map<String, Long> getStageNanosP99();
+
+    Map<String, Long> getStageNanosP999();
+
+    Map<String, Long> getStageNanosMax();
+
+    void reset();
+}
@@ -0,0 +1,161 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer single-consumer ring of preallocated {@link CapturedEvent} slots.
+ * <p>
+ * Producers claim a sequence with a CAS, fill the slot for that sequence, then publish the sequence into the slot's
+ * entry of {@link #published}. The single consumer processes published slots in sequence order and only then advances
+ * {@link #consumed}, which is what frees slots for reuse.
+ */
+class EventRingBuffer {
+
+    private final CapturedEvent[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+
+    /** Highest sequence claimed by any producer. */
+    private final AtomicLong claimed = new AtomicLong(-1);
+    /** Highest sequence the consumer has finished with. Only written by the consumer. */
+    private volatile long consumed = -1;
+    /** Highest sequence handed out by {@link #dispatch}. Only used by the consumer. */
+    private long dispatched = -1;
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    EventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new CapturedEvent[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new CapturedEvent();
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return false without publishing anything if the ring is full
+     */
+    boolean tryPublish(ILoggingEvent event, Integer lineNumber) {
+        long sequence;
+        do {
+            long current = claimed.get();
+            sequence = current + 1;
+            if (sequence - consumed > slots.length) {
+                return false;
+            }
+            if (claimed.compareAndSet(current, sequence)) {
+                break;
+            }
+        } while (true);
+
+        int index = (int) sequence & mask;
+        slots[index].capture(event, lineNumber);
+        published.lazySet(index, sequence);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return published.get((int) (consumed + 1) & mask) != consumed + 1;
+    }
+
+    /**
+     * Hands up to max published events, in order, to the handler and then releases their slots. Only ever call from
+     * the one consumer thread.
+     *
+     * @return number of events handled
+     */
+    int drain(int max, Handler handler) {
+        long next = consumed + 1;
+        int count = 0;
+        while (count < max) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                break;
+            }
+            CapturedEvent event = slots[index];
+            handler.handle(event);
+            event.clear();
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            consumed = next - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Like {@link #drain}, but leaves the events in their slots, for other threads to read through {@link #get}, until
+     * the consumer {@link #release}s them. Only ever call from the one consumer thread, and don't mix with drain.
+     *
+     * @return number of events dispatched, the first of them being the one after what {@link #dispatched()} returned
+     * before the call
+     */
+    int dispatch(int max) {
+        long next = dispatched + 1;
+        int count = 0;
+        while (count < max && published.get((int) next & mask) == next) {
+            next++;
+            count++;
+        }
+        dispatched = next - 1;
+        return count;
+    }
+
+    /**
+     * @return the last sequence dispatched, -1 before the first
+     */
+    long dispatched() {
+        return dispatched;
+    }
+
+    boolean hasUndispatched() {
+        return published.get((int) (dispatched + 1) & mask) == dispatched + 1;
+    }
+
+    /**
+     * @return the event of a dispatched, not yet released sequence
+     */
+    CapturedEvent get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * Frees the slots of every sequence up to and including the given one for reuse.
+     */
+    void release(long upTo) {
+        for (long sequence = consumed + 1; sequence <= upTo; sequence++) {
+            slots[(int) sequence & mask].clear();
+        }
+        consumed = upTo;
+    }
+
+    interface Handler {
+        /**
+         * Must not throw. The event is only valid for the duration of the call.
+         */
+        void handle(ILoggingEvent event);
+    }
+}
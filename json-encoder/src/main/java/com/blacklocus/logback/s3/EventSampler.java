@@ -0,0 +1,316 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether an event gets encoded at all, before any work is spent on it. Events are sampled at per-logger,
+ * per-level rates, then rate limited per call site, a call site being an event's logger, level and format. What is
+ * suppressed is counted per call site and reported in summary events, one per call site, once per summary interval.
+ * <p>
+ * Call sites live in a bounded concurrent table. Those that saw no events for a whole interval are dropped at each
+ * summary. While the table is full, events from new call sites are still sampled but not rate limited, and what they
+ * suppress is reported in a single summary event.
+ */
+class EventSampler {
+
+    /** MDC key of summary events holding how many events were suppressed. */
+    static final String SUPPRESSED_KEY = "suppressed";
+    static final String OVERFLOW_FORMAT = "Events suppressed from call sites beyond the sampler's table";
+
+    static final int DEFAULT_MAX_CALL_SITES = 10000;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * A sample rate for a logger and its descendants, at one level or all of them.
+     */
+    static class Rule {
+        final String logger;
+        final Level level;
+        final double rate;
+
+        Rule(String logger, Level level, double rate) {
+            this.logger = logger;
+            this.level = level;
+            this.rate = rate;
+        }
+
+        /**
+         * @param rule logger[:LEVEL]=rate, e.g. com.example.Chatty:DEBUG=0.01. ROOT or * for all loggers.
+         */
+        static Rule parse(String rule) {
+            int equals = rule.lastIndexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected logger[:LEVEL]=rate");
+            }
+            String logger = rule.substring(0, equals).trim();
+            double rate = Double.parseDouble(rule.substring(equals + 1).trim());
+            if (!(rate >= 0 && rate <= 1)) {
+                throw new IllegalArgumentException("Rate must be between 0 and 1");
+            }
+            Level level = null;
+            int colon = logger.lastIndexOf(':');
+            if (colon >= 0) {
+                level = Level.toLevel(logger.substring(colon + 1).trim(), null);
+                if (null == level) {
+                    throw new IllegalArgumentException("Unknown level in " + logger);
+                }
+                logger = logger.substring(0, colon).trim();
+            }
+            if ("*".equals(logger) || Logger.ROOT_LOGGER_NAME.equalsIgnoreCase(logger)) {
+                logger = "";
+            }
+            return new Rule(logger, level, rate);
+        }
+
+        boolean matches(String loggerName, Level level) {
+            return (null == this.level || this.level.equals(level)) && (logger.isEmpty()
+                    || (null != loggerName && loggerName.startsWith(logger)
+                    && (loggerName.length() == logger.length() || loggerName.charAt(logger.length()) == '.')));
+        }
+
+        /**
+         * @return whether this rule is more specific than other: a longer logger, or the same logger at one level
+         */
+        boolean overrides(Rule other) {
+            return logger.length() > other.logger.length()
+                    || (logger.length() == other.logger.length() && null != level && null == other.level);
+        }
+    }
+
+    private final List<Rule> rules;
+    private final long emissionInterval;
+    private final long burstTolerance;
+    private final long summaryInterval;
+    private final int maxCallSites;
+
+    private final ConcurrentMap<Key, CallSite> callSites = new ConcurrentHashMap<>();
+    // Call sites are looked up with a reused probe, so that known ones cost no allocation. Only copies go in the map.
+    private final BufferPool<Key> probes = new BufferPool<Key>() {
+        @Override
+        Key create() {
+            return new Key();
+        }
+    };
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong overflowSuppressed = new AtomicLong();
+    private final AtomicLong nextSummary = new AtomicLong();
+
+    /**
+     * @param rules           sample rates, most specific wins
+     * @param rateLimit       events per second let through per call site, unlimited if not positive
+     * @param burst           events per call site let through at once before the rate limit applies
+     * @param summaryInterval millis between summaries, no summaries if not positive
+     */
+    EventSampler(List<Rule> rules, double rateLimit, int burst, long summaryInterval, int maxCallSites) {
+        this.rules = new ArrayList<>(rules);
+        this.emissionInterval = rateLimit > 0 ? Math.max(1, (long) (NANOS_PER_SECOND / rateLimit)) : 0;
+        this.burstTolerance = emissionInterval * (Math.max(1, burst) - 1);
+        this.summaryInterval = summaryInterval;
+        this.maxCallSites = maxCallSites;
+    }
+
+    /**
+     * @return whether the event should be encoded
+     */
+    boolean accept(ILoggingEvent e) {
+        return accept(e, emissionInterval > 0 ? System.nanoTime() : 0);
+    }
+
+    boolean accept(ILoggingEvent e, long nanoTime) {
+        CallSite site = callSite(e, nanoTime);
+        if (!site.active) {
+            site.active = true;
+        }
+        double rate = site.sampleRate;
+        if (rate < 1 && (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate)) {
+            site.suppressed.incrementAndGet();
+            return false;
+        }
+        if (emissionInterval > 0 && !site.tryAcquire(nanoTime)) {
+            site.suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hands out the events suppressed since the last summary, to whichever caller first finds a summary due.
+     *
+     * @param now millis, normally the timestamp of the event about to be written
+     * @return summary events, empty unless a summary is due and this caller is the one to write it
+     */
+    List<ILoggingEvent> summaries(long now) {
+        long due = nextSummary.get();
+        if (summaryInterval <= 0 || now < due || !nextSummary.compareAndSet(due, now + summaryInterval)) {
+            return Collections.emptyList();
+        }
+
+        List<ILoggingEvent> summaries = new ArrayList<>();
+        for (Iterator<Map.Entry<Key, CallSite>> i = callSites.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Key, CallSite> entry = i.next();
+            CallSite site = entry.getValue();
+            long suppressed = site.suppressed.getAndSet(0);
+            if (suppressed > 0) {
+                Key key = entry.getKey();
+                summaries.add(summary(key.loggerName, key.level, key.format, suppressed, now));
+            }
+            if (site.active) {
+                site.active = false;
+            } else if (callSites.remove(entry.getKey(), site)) {
+                size.decrementAndGet();
+            }
+        }
+        long overflow = overflowSuppressed.getAndSet(0);
+        if (overflow > 0) {
+            summaries.add(summary(EventSampler.class.getName(), Level.WARN, OVERFLOW_FORMAT, overflow, now));
+        }
+        return summaries;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private CallSite callSite(ILoggingEvent e, long nanoTime) {
+        Key probe = probes.acquire();
+        CallSite site = callSites.get(probe.set(e.getLoggerName(), e.getLevel(), e.getMessage()));
+        // Not left holding on to the event's strings.
+        probes.release(probe.set(null, null, null));
+        if (null == site) {
+            double rate = sampleRate(e.getLoggerName(), e.getLevel());
+            if (size.get() >= maxCallSites) {
+                return new CallSite(rate, overflowSuppressed, nanoTime);
+            }
+            site = new CallSite(rate, new AtomicLong(), nanoTime);
+            Key key = new Key().set(e.getLoggerName(), e.getLevel(), e.getMessage());
+            CallSite raced = callSites.putIfAbsent(key, site);
+            if (null != raced) {
+                site = raced;
+            } else {
+                size.incrementAndGet();
+            }
+        }
+        return site;
+    }
+
+    double sampleRate(String loggerName, Level level) {
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.matches(loggerName, level) && (null == best || rule.overrides(best))) {
+                best = rule;
+            }
+        }
+        return null == best ? 1 : best.rate;
+    }
+
+    private static ILoggingEvent summary(String loggerName, Level level, String format, long suppressed, long now) {
+        LoggingEvent summary = new LoggingEvent();
+        summary.setLoggerName(loggerName);
+        summary.setLevel(level);
+        summary.setMessage(format);
+        summary.setTimeStamp(now);
+        summary.setMDCPropertyMap(Collections.singletonMap(SUPPRESSED_KEY, Long.toString(suppressed)));
+        // Captured, so that nobody goes looking for the caller of a made up event.
+        CapturedEvent captured = new CapturedEvent();
+        captured.capture(summary, null);
+        return captured;
+    }
+
+    /**
+     * Only ever changed while used as a probe. Keys in the map are never touched again.
+     */
+    private static class Key {
+        String loggerName;
+        Level level;
+        String format;
+        int hash;
+
+        Key set(String loggerName, Level level, String format) {
+            this.loggerName = loggerName;
+            this.level = level;
+            this.format = format;
+            int h = null == loggerName ? 0 : loggerName.hashCode();
+            h = 31 * h + (null == level ? 0 : level.toInt());
+            this.hash = 31 * h + (null == format ? 0 : format.hashCode());
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && level == other.level && equal(loggerName, other.loggerName)
+                    && equal(format, other.format);
+        }
+
+        private static boolean equal(String a, String b) {
+            return null == a ? null == b : a.equals(b);
+        }
+    }
+
+    private class CallSite {
+        final double sampleRate;
+        final AtomicLong suppressed;
+        /** When the next event would be let through at exactly the rate limit, in System.nanoTime() terms. */
+        final AtomicLong theoreticalArrival;
+        /** Saw events since the last summary. Written without a CAS, it only needs to become true eventually. */
+        volatile boolean active = true;
+
+        CallSite(double sampleRate, AtomicLong suppressed, long nanoTime) {
+            this.sampleRate = sampleRate;
+            this.suppressed = suppressed;
+            this.theoreticalArrival = new AtomicLong(nanoTime);
+        }
+
+        /**
+         * A token bucket kept as a single timestamp (GCRA): an event passes unless it would push the theoretical arrival
+         * time more than the burst ahead of now. Rejections only read, so a flooded call site isn't contended.
+         */
+        boolean tryAcquire(long now) {
+            for (;;) {
+                long arrival = theoreticalArrival.get();
+                if (arrival - now > burstTolerance) {
+                    return false;
+                }
+                long next = (arrival - now > 0 ? arrival : now) + emissionInterval;
+                if (theoreticalArrival.compareAndSet(arrival, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes a throwable as a structured exception object: class, message, frames, cause chain and suppressed.
+ * <p>
+ * Each trace is identified by a hash of its classes and frames, messages excluded since they tend to carry ids. The
+ * full body of a trace is written at most once per dedup interval; repeats in between only carry the traceId, class
+ * and message, and can be joined back to the full body by traceId. A body only counts once the event carrying it has
+ * been written, see {@link #written}. After {@link #reset()}, as on a new file, the next occurrence of each trace is
+ * written in full again.
+ */
+class ExceptionWriter {
+
+    private static final int MAX_CACHED_TRACES = 1000;
+    private static final int MAX_CACHED_FRAMES = 10000;
+
+    private final long dedupInterval;
+    private final ConcurrentMap<Long, Long> lastWritten = new ConcurrentHashMap<>();
+    // Error storms repeat the same frames over and over, so their escaped form is cached.
+    private final FragmentCache<StackTraceElement> frames = new FragmentCache<StackTraceElement>(MAX_CACHED_FRAMES) {
+        @Override
+        JsonFragment create(StackTraceElement frame) {
+            return JsonFragment.string(frame.toString());
+        }
+    };
+
+    /**
+     * @param dedupInterval millis during which a repeated trace is written without its body, or never dedup if not
+     *                      positive
+     */
+    ExceptionWriter(long dedupInterval) {
+        this.dedupInterval = dedupInterval;
+    }
+
+    /**
+     * Forget which traces have been written, so that each is written in full the next time it appears.
+     */
+    void reset() {
+        lastWritten.clear();
+    }
+
+    /**
+     * @param timestamp when the event happened, the clock dedup intervals are measured by
+     * @return whether the full body was written, in which case the caller reports it with {@link #written} once the
+     * event is out
+     */
+    boolean write(IThrowableProxy throwable, long timestamp, JsonWriter out) {
+        if (null == throwable) {
+            out.nullValue();
+            return false;
+        }
+
+        long traceHash = hash(throwable);
+        writeTraceId(traceHash, out);
+        boolean full = firstInInterval(traceHash, timestamp);
+        if (full) {
+            writeBody(throwable, out);
+        } else {
+            writeSummary(throwable, out, Integer.MAX_VALUE);
+            out.raw(", \"repeated\": true");
+        }
+        out.raw('}');
+        return full;
+    }
+
+    /**
+     * Writes just the traceId, className and message, with the message cut to maxMessageLength chars, for events that
+     * don't fit with the full body. Doesn't count as the body being written.
+     */
+    void writeMinimal(IThrowableProxy throwable, JsonWriter out, int maxMessageLength) {
+        if (null == throwable) {
+            out.nullValue();
+            return;
+        }
+        writeTraceId(hash(throwable), out);
+        writeSummary(throwable, out, maxMessageLength);
+        out.raw('}');
+    }
+
+    /**
+     * Records that the full body of the trace is out, so that repeats within the interval refer to it by traceId.
+     * Racing threads may both write the body before either records it. That's harmless, only wasteful.
+     */
+    void written(IThrowableProxy throwable, long timestamp) {
+        if (dedupInterval <= 0) {
+            return;
+        }
+        if (lastWritten.size() >= MAX_CACHED_TRACES) {
+            lastWritten.clear();
+        }
+        lastWritten.put(hash(throwable), timestamp);
+    }
+
+    private boolean firstInInterval(long traceHash, long timestamp) {
+        if (dedupInterval <= 0) {
+            return true;
+        }
+        Long last = lastWritten.get(traceHash);
+        return null == last || timestamp - last >= dedupInterval;
+    }
+
+    private static void writeTraceId(long traceHash, JsonWriter out) {
+        out.raw("{\"traceId\": \"");
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out.raw(JsonWriter.HEX[(int) (traceHash >>> shift) & 0xF]);
+        }
+        out.raw("\", ");
+    }
+
+    private void writeSummary(IThrowableProxy throwable, JsonWriter out, int maxMessageLength) {
+        out.raw("\"className\": ").string(throwable.getClassName());
+        out.raw(", \"message\": ").string(throwable.getMessage(), maxMessageLength);
+    }
+
+    private void writeBody(IThrowableProxy throwable, JsonWriter out) {
+        writeSummary(throwable, out, Integer.MAX_VALUE);
+
+        out.raw(", \"frames\": [");
+        StackTraceElementProxy[] stack = throwable.getStackTraceElementProxyArray();
+        // Frames shared with the enclosing trace are left at the end of the array, counted as common frames.
+        int length = stack.length - throwable.getCommonFrames();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                out.raw(", ");
+            }
+            out.raw(frames.get(stack[i].getStackTraceElement()));
+        }
+        out.raw(']');
+        if (throwable.getCommonFrames() > 0) {
+            out.raw(", \"commonFrames\": ").number(throwable.getCommonFrames());
+        }
+
+        if (null != throwable.getCause()) {
+            out.raw(", \"cause\": {");
+            writeBody(throwable.getCause(), out);
+            out.raw('}');
+        }
+
+        IThrowableProxy[] suppressed = throwable.getSuppressed();
+        if (null != suppressed && suppressed.length > 0) {
+            out.raw(", \"suppressed\": [");
+            for (int i = 0; i < suppressed.length; i++) {
+                if (i > 0) {
+                    out.raw(", ");
+                }
+                out.raw('{');
+                writeBody(suppressed[i], out);
+                out.raw('}');
+            }
+            out.raw(']');
+        }
+    }
+
+    /**
+     * 64-bit hash of the classes and frames of the trace, its causes and suppressed.
+     */
+    static long hash(IThrowableProxy throwable) {
+        long h = 1125899906842597L;
+        h = 31 * h + throwable.getClassName().hashCode();
+        StackTraceElementProxy[] stack = throwable.getStackTraceElementProxyArray();
+        for (int i = 0; i < stack.length - throwable.getCommonFrames(); i++) {
+            h = 31 * h + stack[i].getStackTraceElement().hashCode();
+        }
+        if (null != throwable.getCause()) {
+            h = 31 * h + hash(throwable.getCause());
+        }
+        IThrowableProxy[] suppressed = throwable.getSuppressed();
+        if (null != suppressed) {
+            for (IThrowableProxy s : suppressed) {
+                h = 31 * h + hash(s);
+            }
+        }
+        // Spread the bits so that similar traces don't get similar ids.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of {@link JsonFragment}s for content that recurs across events: field keys, logger names, stack
+ * frames. Once full, each new entry evicts an arbitrary old one. The set of hot keys is normally small and fixed, so
+ * eviction only comes into play when keys are generated dynamically, where it keeps memory bounded while the entries
+ * that are in use keep getting re-added.
+ */
+abstract class FragmentCache<K> {
+
+    private final int maxEntries;
+    private final ConcurrentMap<K, JsonFragment> fragments = new ConcurrentHashMap<>();
+
+    FragmentCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Builds the fragment for a key on a cache miss. May be called more than once for the same key under contention.
+     */
+    abstract JsonFragment create(K key);
+
+    JsonFragment get(K key) {
+        JsonFragment fragment = fragments.get(key);
+        if (null == fragment) {
+            fragment = create(key);
+            if (fragments.size() >= maxEntries) {
+                Iterator<K> evict = fragments.keySet().iterator();
+                if (evict.hasNext()) {
+                    evict.next();
+                    evict.remove();
+                }
+            }
+            fragments.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    int size() {
+        return fragments.size();
+    }
+}
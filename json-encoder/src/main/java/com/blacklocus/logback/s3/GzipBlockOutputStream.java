@@ -0,0 +1,71 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes each block as a complete gzip member (RFC 1952). Concatenated members are a valid gzip file, which gunzip,
+ * zcat and GZIPInputStream read through as one stream.
+ */
+class GzipBlockOutputStream extends BlockCompressingOutputStream {
+
+    // Magic, deflate, no flags, no mtime, no extra flags, unknown OS.
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buf = new byte[8 * 1024];
+    private final byte[] trailer = new byte[8];
+
+    GzipBlockOutputStream(OutputStream out, int blockSize, long flushInterval) {
+        super(out, blockSize, flushInterval);
+    }
+
+    @Override
+    void writeBlock(byte[] block, int len) throws IOException {
+        out.write(HEADER);
+
+        deflater.reset();
+        deflater.setInput(block, 0, len);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf, 0, buf.length);
+            out.write(buf, 0, n);
+        }
+
+        crc.reset();
+        crc.update(block, 0, len);
+        writeIntLE((int) crc.getValue(), trailer, 0);
+        writeIntLE(len, trailer, 4);
+        out.write(trailer);
+    }
+
+    @Override
+    void finish() throws IOException {
+        try {
+            super.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static void writeIntLE(int v, byte[] b, int off) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+}
@@ -11,50 +11,436 @@
  */
 package com.blacklocus.logback.s3;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.PatternLayout;
-import ch.qos.logback.classic.pattern.LineOfCallerConverter;
-import ch.qos.logback.classic.spi.CallerData;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.LayoutBase;
 import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import ch.qos.logback.core.recovery.ResilientFileOutputStream;
 import com.blacklocus.logback.s3.avro.LogLevel;
-import com.blacklocus.logback.s3.avro.RawLog;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 // We need our own encoder to correctly initialize the layout.
 public class JsonEncoder<E> extends LayoutWrappingEncoder<E> {
 
+    /**
+     * What goes into the rendered field.
+     */
+    enum RenderMode {
+        /** The event rendered with pattern, or null if there is no pattern. */
+        PATTERN,
+        /** Just the formatted message, no pattern needed. */
+        MESSAGE_ONLY,
+        /** Like PATTERN, but only for events at or above renderLevel, null for the rest. */
+        ON_LEVEL;
+
+        static RenderMode parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
     private static final String DEBUG_NAME = "[JsonAppender]";
     private static final String NEW_LINE = System.getProperty("line.separator", "\n");
 
-    private ObjectMapper mapper = new ObjectMapper();
+    /** Writers that have grown beyond this are not kept around for reuse. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_CACHED_LOGGER_NAMES = 10000;
+
+    // Field keys with the punctuation around them, ready to copy into either kind of writer.
+    private static final JsonFragment LOGGER_NAME_KEY = JsonFragment.raw("{\"loggerName\": ");
+    private static final JsonFragment LOG_LEVEL_KEY = JsonFragment.raw(", \"logLevel\": ");
+    private static final JsonFragment LOG_DATE_TIME_KEY = JsonFragment.raw(", \"logDateTime\": ");
+    private static final JsonFragment LINE_NUMBER_KEY = JsonFragment.raw(", \"lineNumber\": ");
+    private static final JsonFragment RENDERED_KEY = JsonFragment.raw(", \"rendered\": ");
+    private static final JsonFragment FORMAT_KEY = JsonFragment.raw(", \"format\": ");
+    private static final JsonFragment ARGS_KEY = JsonFragment.raw(", \"args\": [");
+    private static final JsonFragment CONTEXT_KEY = JsonFragment.raw("], \"context\": ");
+    private static final JsonFragment EXCEPTION_KEY = JsonFragment.raw(", \"exception\": ");
+    private static final JsonFragment CALL_SITE_ID_KEY = JsonFragment.raw(", \"callSiteId\": ");
+    private static final JsonFragment END = JsonFragment.raw("}" + NEW_LINE);
+    private static final JsonFragment[] LOG_LEVELS = new JsonFragment[LogLevel.values().length];
+
+    static {
+        for (LogLevel level : LogLevel.values()) {
+            LOG_LEVELS[level.ordinal()] = JsonFragment.string(level.name());
+        }
+    }
+
+    private final ArgumentWriters argumentWriters = new ArgumentWriters();
+    private final FragmentCache<String> loggerNames = new FragmentCache<String>(MAX_CACHED_LOGGER_NAMES) {
+        @Override
+        JsonFragment create(String loggerName) {
+            return JsonFragment.string(loggerName);
+        }
+    };
+    private final BufferPool<CharJsonWriter> writers = new BufferPool.Writers<CharJsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        CharJsonWriter create() {
+            return new CharJsonWriter(1024);
+        }
+    };
+    private final BufferPool<CharJsonWriter> argWriters = new BufferPool.Writers<CharJsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        CharJsonWriter create() {
+            return new CharJsonWriter(256);
+        }
+    };
+    private final BufferPool<Utf8JsonWriter> byteWriters = new BufferPool.Writers<Utf8JsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        Utf8JsonWriter create() {
+            return new Utf8JsonWriter(1024);
+        }
+    };
+    private final BufferPool<long[]> stageNanos = new BufferPool<long[]>() {
+        @Override
+        long[] create() {
+            return new long[EncoderMetrics.Stage.values().length];
+        }
+    };
+    private EventSampler sampler;
+    private EncoderMetrics encoderMetrics;
+    private ObjectName metricsObjectName;
     private PatternLayout renderPatternLayout;
+    private SimplePatternRenderer simpleRenderer;
+    private RenderMode render = RenderMode.PATTERN;
+    private Level renderThreshold = Level.WARN;
+    private ContextWriter contextWriter = new ContextWriter(Collections.<String>emptyList(), Collections.<String>emptyList(), 0);
+    private CallerLocator callerLocator = new CallerLocator(1, false, CallerLocator.DEFAULT_MAX_ENTRIES);
+    private ExceptionWriter exceptionWriter = new ExceptionWriter(0);
+    private final CallSiteIds callSites = new CallSiteIds(CallSiteIds.DEFAULT_MAX_CALL_SITES);
+    /** Whether every event of a call site gets its line, so it can go into the call site id. */
+    private boolean callSiteLines = true;
+    private BlockCompressingOutputStream.Codec codec;
+    private BlockCompressingOutputStream compressor;
+    private LogIndexWriter indexWriter;
+    private TimestampFormatter timestampFormatter = new TimestampFormatter(TimestampFormatter.Format.ISO);
 
     // Configurable things
 
     String pattern;
+    String renderMode;
+    String renderLevel;
     boolean lineNumbers = false;
+    int lineNumberSampleRate = 1;
+    boolean lineNumberCache = false;
+    boolean directUtf8 = false;
+    String timestampFormat;
+    boolean embedArgs = false;
+    String contextIncludes;
+    String contextExcludes;
+    int contextMaxValueLength = 0;
+    boolean exceptions = false;
+    long exceptionDedupInterval = 0;
+    boolean callSiteIds = false;
+    boolean callSiteDictionary = false;
+    String compression;
+    int compressionBlockSize = BlockCompressingOutputStream.DEFAULT_BLOCK_SIZE;
+    long compressionFlushInterval = 1000;
+    boolean index = false;
+    int indexBlockRecords = 1000;
+    long indexBlockMillis = 1000;
+    List<String> argumentWriterMappings = new ArrayList<>();
+    int argMaxSize = 0;
+    int argMaxElements = 0;
+    int argMaxDepth = 0;
+    int maxEventSize = 0;
+    List<String> sampleRates = new ArrayList<>();
+    double rateLimit = 0;
+    int rateLimitBurst = 0;
+    long summaryInterval = 60000;
+    boolean metrics = false;
+    String metricsName;
+    List<String> listenerClasses = new ArrayList<>();
     boolean debug = false;
 
     public void setPattern(String pattern) {
         this.pattern = pattern;
     }
 
+    /**
+     * What goes into rendered: pattern (the default) renders the event with pattern, message-only writes just the
+     * formatted message, on-level renders with pattern only events at or above renderLevel and leaves the rest null.
+     */
+    public void setRenderMode(String renderMode) {
+        this.renderMode = renderMode;
+    }
+
+    /**
+     * Lowest level rendered in on-level mode. Defaults to WARN.
+     */
+    public void setRenderLevel(String renderLevel) {
+        this.renderLevel = renderLevel;
+    }
+
     public void setLineNumbers(boolean lineNumbers) {
         this.lineNumbers = lineNumbers;
     }
 
+    /**
+     * Only capture line numbers for 1 in this many events per logger. Defaults to 1, every event.
+     */
+    public void setLineNumberSampleRate(int lineNumberSampleRate) {
+        this.lineNumberSampleRate = lineNumberSampleRate;
+    }
+
+    /**
+     * Remember line numbers per logger name and format, so that unsampled events still get one without a stack
+     * capture. Defaults to false.
+     */
+    public void setLineNumberCache(boolean lineNumberCache) {
+        this.lineNumberCache = lineNumberCache;
+    }
+
+    /**
+     * When true, events are encoded straight to UTF-8 bytes and written to the appender's OutputStream, skipping the
+     * intermediate String and the charset encoder. Requires the charset to be left unset or set to UTF-8.
+     */
+    public void setDirectUtf8(boolean directUtf8) {
+        this.directUtf8 = directUtf8;
+    }
+
+    /**
+     * How logDateTime is written: iso (the default, e.g. 2015-05-12T14:41:17.171Z), iso-micros
+     * (2015-05-12T14:41:17.171000Z) or epoch-millis (1431441677171).
+     */
+    public void setTimestampFormat(String timestampFormat) {
+        this.timestampFormat = timestampFormat;
+    }
+
+    /**
+     * When true, non-String arguments are written as JSON values, e.g. "args": [5, ["a","b"]], rather than as strings
+     * containing JSON, e.g. "args": ["5", "[\"a\",\"b\"]"].
+     */
+    public void setEmbedArgs(boolean embedArgs) {
+        this.embedArgs = embedArgs;
+    }
+
+    /**
+     * Registers a custom {@link ArgumentWriter} for a type and its subtypes, as type=writer, e.g.
+     * com.example.Money=com.example.MoneyArgumentWriter
+     */
+    public void addArgumentWriter(String mapping) {
+        argumentWriterMappings.add(mapping);
+    }
+
+    /**
+     * Arguments serializing to more chars than this are cut short and end in "...". Unlimited if not positive, the
+     * default.
+     */
+    public void setArgMaxSize(int argMaxSize) {
+        this.argMaxSize = argMaxSize;
+    }
+
+    /**
+     * Collections and maps in arguments are written with at most this many elements, followed by a "..." element.
+     * Unlimited if not positive, the default.
+     */
+    public void setArgMaxElements(int argMaxElements) {
+        this.argMaxElements = argMaxElements;
+    }
+
+    /**
+     * Collections and maps in arguments nested deeper than this are written as "...". Unlimited if not positive, the
+     * default.
+     */
+    public void setArgMaxDepth(int argMaxDepth) {
+        this.argMaxDepth = argMaxDepth;
+    }
+
+    /**
+     * Events encoding to more chars (bytes with directUtf8) than this are written without rendered and context, with
+     * args replaced by "...", format truncated, and only the exception's traceId, className and truncated message.
+     * Unlimited if not positive, the default.
+     */
+    public void setMaxEventSize(int maxEventSize) {
+        this.maxEventSize = maxEventSize;
+    }
+
+    /**
+     * Repeatable, logger[:LEVEL]=rate: the fraction of events from the logger and its descendants, at the level or at
+     * any level, that get encoded. ROOT or * for all loggers. The most specific rule wins.
+     */
+    public void addSampleRate(String sampleRate) {
+        sampleRates.add(sampleRate);
+    }
+
+    /**
+     * Events per second encoded per call site, that is per logger, level and format. The rest are suppressed.
+     * Unlimited if not positive, the default.
+     */
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Events per call site encoded at once before the rate limit kicks in. Defaults to one second's worth.
+     */
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    /**
+     * Millis between summary events reporting, per call site, how many events sampling and rate limiting suppressed.
+     * Defaults to 60000, never if not positive.
+     */
+    public void setSummaryInterval(long summaryInterval) {
+        this.summaryInterval = summaryInterval;
+    }
+
+    /**
+     * Comma separated MDC keys. If set, only these are written to context.
+     */
+    public void setContextIncludes(String contextIncludes) {
+        this.contextIncludes = contextIncludes;
+    }
+
+    /**
+     * Comma separated MDC keys that are never written to context.
+     */
+    public void setContextExcludes(String contextExcludes) {
+        this.contextExcludes = contextExcludes;
+    }
+
+    /**
+     * Context values longer than this are truncated and end in "...". Unlimited if not positive, the default.
+     */
+    public void setContextMaxValueLength(int contextMaxValueLength) {
+        this.contextMaxValueLength = contextMaxValueLength;
+    }
+
+    /**
+     * When true, an exception field is added after context with the event's throwable as an object of className,
+     * message, frames, cause and suppressed, or null if it has none. Defaults to false.
+     */
+    public void setExceptions(boolean exceptions) {
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * Millis during which a repeated stack trace is written as just its traceId, className and message, with
+     * "repeated": true. Each trace is written in full at least once per interval and once per file. Never dedup if not
+     * positive, the default.
+     * <p>
+     * A segment of SegmentUploadAppender counts as a file. ParallelJsonAppender can't keep its events in encoding order
+     * and turns dedup off.
+     */
+    public void setExceptionDedupInterval(long exceptionDedupInterval) {
+        this.exceptionDedupInterval = exceptionDedupInterval;
+    }
+
+    /**
+     * When true, adds a callSiteId to every event: a stable 64-bit hash of logger name, format and line number, as 16
+     * hex digits, to group events by. Defaults to false.
+     * <p>
+     * With a lineNumberSampleRate above 1 and no lineNumberCache, most events have no line, so the line is left out
+     * of the hash rather than giving one call site two ids. Call sites with the same logger and format then share one.
+     */
+    public void setCallSiteIds(boolean callSiteIds) {
+        this.callSiteIds = callSiteIds;
+    }
+
+    /**
+     * When true, each call site's format is written only the first time it appears in a file, and as null after that,
+     * to be looked up by callSiteId. Implies callSiteIds. Defaults to false.
+     * <p>
+     * Each file of FileAppender, AsyncJsonAppender and MappedJsonAppender, and each segment of SegmentUploadAppender,
+     * has its own dictionary. ParallelJsonAppender can't keep its events in encoding order and turns it off.
+     */
+    public void setCallSiteDictionary(boolean callSiteDictionary) {
+        this.callSiteDictionary = callSiteDictionary;
+    }
+
+    /**
+     * Compresses output inline in independently decodable blocks: none (the default), gzip or lz4. The file reads as
+     * ordinary gzip or lz4 output.
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Uncompressed bytes per compressed block. Defaults to 64KB, at most 4MB for lz4.
+     */
+    public void setCompressionBlockSize(int compressionBlockSize) {
+        this.compressionBlockSize = compressionBlockSize;
+    }
+
+    /**
+     * Millis after which buffered output is compressed and written, on the next event or flush, even if the block isn't
+     * full. Bounds how much a crash can lose. Defaults to 1000. If not positive, every flush writes a block, which with
+     * immediateFlush means a block per event.
+     */
+    public void setCompressionFlushInterval(long compressionFlushInterval) {
+        this.compressionFlushInterval = compressionFlushInterval;
+    }
+
+    /**
+     * When true, writes a sparse index of each file next to it, as file.idx, for {@link LogIndexReader} to seek by time
+     * and level. Only works with FileAppender and its subclasses, and not with lz4. Defaults to false.
+     * <p>
+     * A RollingFileAppender with a fixed file renames it on rollover without its index, which is then started over
+     * for the new file. Leave file unset, so that each file is written under its final name, to keep every index.
+     */
+    public void setIndex(boolean index) {
+        this.index = index;
+    }
+
+    /**
+     * Most records per index block. Defaults to 1000.
+     */
+    public void setIndexBlockRecords(int indexBlockRecords) {
+        this.indexBlockRecords = indexBlockRecords;
+    }
+
+    /**
+     * Most millis between the earliest timestamp in an index block and the start of the next one. Defaults to 1000.
+     */
+    public void setIndexBlockMillis(long indexBlockMillis) {
+        this.indexBlockMillis = indexBlockMillis;
+    }
+
+    /**
+     * When true, counts events, encoded size and failures by type, and times each stage of encoding. Exposed over JMX
+     * and through {@link #getMetrics()}. Defaults to false, since timing costs a few clock reads per event.
+     */
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The name metrics are registered with in JMX, as com.blacklocus.logback.s3:type=JsonEncoder,name=metricsName.
+     * Defaults to JsonEncoder@ followed by the encoder's identity hash.
+     */
+    public void setMetricsName(String metricsName) {
+        this.metricsName = metricsName;
+    }
+
+    /**
+     * Registers an {@link EncoderListener} by class name, which must have a no-arg constructor. Enables metrics.
+     */
+    public void addListener(String listenerClass) {
+        listenerClasses.add(listenerClass);
+    }
+
+    /**
+     * @return the encoder's metrics, or null unless enabled
+     */
+    public EncoderMetrics getMetrics() {
+        return encoderMetrics;
+    }
+
     public void setDebug(boolean debug) {
         this.debug = debug;
     }
@@ -71,50 +457,296 @@ public class JsonEncoder<E> extends LayoutWrappingEncoder<E> {
         layout.start();
         setLayout(layout);
 
+        contextWriter = new ContextWriter(split(contextIncludes), split(contextExcludes), contextMaxValueLength);
+        callerLocator = new CallerLocator(lineNumberSampleRate, lineNumberCache, CallerLocator.DEFAULT_MAX_ENTRIES);
+        exceptionWriter = new ExceptionWriter(exceptionDedupInterval);
+        if (callSiteDictionary) {
+            callSiteIds = true;
+        }
+        callSiteLines = lineNumbers && (lineNumberSampleRate <= 1 || lineNumberCache);
+        if (callSiteIds && lineNumbers && !callSiteLines) {
+            addWarn("lineNumberSampleRate without lineNumberCache leaves most events without a line, leaving the line out"
+                    + " of callSiteIds.");
+        }
+
         if (null != pattern) {
             PatternLayout renderPatternLayout = new PatternLayout();
             renderPatternLayout.setContext(context);
             renderPatternLayout.setPattern(pattern);
             renderPatternLayout.start();
             this.renderPatternLayout = renderPatternLayout;
+            if (SimplePatternRenderer.supports(pattern)) {
+                simpleRenderer = new SimplePatternRenderer();
+            }
+        }
+
+        if (null != renderMode) {
+            try {
+                render = RenderMode.parse(renderMode);
+            } catch (IllegalArgumentException e) {
+                addWarn("Unknown renderMode '" + renderMode + "', using pattern.");
+            }
+        }
+        if (null != renderLevel) {
+            renderThreshold = Level.toLevel(renderLevel, Level.WARN);
+        }
+        if (render == RenderMode.ON_LEVEL && null == pattern) {
+            addWarn("renderMode on-level needs a pattern, rendered will always be null.");
+        }
+
+        if (null != timestampFormat) {
+            try {
+                timestampFormatter = new TimestampFormatter(TimestampFormatter.Format.parse(timestampFormat));
+            } catch (IllegalArgumentException e) {
+                addWarn("Unknown timestampFormat '" + timestampFormat + "', using iso.");
+            }
+        }
+
+        argumentWriters.limit(argMaxSize, argMaxElements, argMaxDepth);
+        for (String mapping : argumentWriterMappings) {
+            String[] typeAndWriter = mapping.split("=", 2);
+            try {
+                ClassLoader classLoader = getClass().getClassLoader();
+                Class<?> type = Class.forName(typeAndWriter[0].trim(), false, classLoader);
+                Class<?> writer = Class.forName(typeAndWriter[1].trim(), true, classLoader);
+                argumentWriters.register(type, (ArgumentWriter) writer.getDeclaredConstructor().newInstance());
+            } catch (Exception e) {
+                addError("Could not register argumentWriter '" + mapping + "'", e);
+            }
+        }
+
+        List<EventSampler.Rule> rules = new ArrayList<>();
+        for (String sampleRate : sampleRates) {
+            try {
+                rules.add(EventSampler.Rule.parse(sampleRate));
+            } catch (IllegalArgumentException e) {
+                addError("Could not parse sampleRate '" + sampleRate + "'", e);
+            }
+        }
+        if (!rules.isEmpty() || rateLimit > 0) {
+            int burst = rateLimitBurst > 0 ? rateLimitBurst : (int) Math.ceil(rateLimit);
+            sampler = new EventSampler(rules, rateLimit, burst, summaryInterval, EventSampler.DEFAULT_MAX_CALL_SITES);
+        }
+
+        if (null != compression && !"none".equalsIgnoreCase(compression.trim())) {
+            try {
+                codec = BlockCompressingOutputStream.Codec.parse(compression);
+            } catch (IllegalArgumentException e) {
+                addWarn("Unknown compression '" + compression + "', not compressing.");
+            }
+        }
+        if (compressionBlockSize <= 0) {
+            compressionBlockSize = BlockCompressingOutputStream.DEFAULT_BLOCK_SIZE;
+        }
+        if (codec == BlockCompressingOutputStream.Codec.LZ4 && compressionBlockSize > Lz4BlockOutputStream.MAX_BLOCK_SIZE) {
+            addWarn("compressionBlockSize " + compressionBlockSize + " is too large for lz4, using "
+                    + Lz4BlockOutputStream.MAX_BLOCK_SIZE + ".");
+            compressionBlockSize = Lz4BlockOutputStream.MAX_BLOCK_SIZE;
+        }
+        if (index && codec == BlockCompressingOutputStream.Codec.LZ4) {
+            addWarn("index can't be used with lz4 compression, not indexing.");
+            index = false;
+        }
+
+        if (directUtf8 && null != getCharset() && !StandardCharsets.UTF_8.equals(getCharset())) {
+            addWarn("directUtf8 only writes UTF-8 but charset is " + getCharset() + ". Falling back to String encoding.");
+            directUtf8 = false;
+        }
+
+        if (metrics || !listenerClasses.isEmpty()) {
+            EncoderMetrics encoderMetrics = new EncoderMetrics();
+            for (String listenerClass : listenerClasses) {
+                try {
+                    Class<?> listener = Class.forName(listenerClass.trim(), true, getClass().getClassLoader());
+                    encoderMetrics.addListener((EncoderListener) listener.getDeclaredConstructor().newInstance());
+                } catch (Exception e) {
+                    addError("Could not create listener '" + listenerClass + "'", e);
+                }
+            }
+            this.encoderMetrics = encoderMetrics;
+            registerMetrics();
         }
 
         super.start();
     }
 
-    String _doLayout(E eventObject) {
+    @Override
+    public void stop() {
+        unregisterMetrics();
+        super.stop();
+    }
+
+    /**
+     * Registers the metrics with JMX, unless they already are. Called on start for appenders that write events
+     * without {@link #init}, and again on init, since logback's appenders never stop their encoder but close it
+     * between files and on stop.
+     */
+    private synchronized void registerMetrics() {
+        if (null == encoderMetrics || null != metricsObjectName) {
+            return;
+        }
+        String name = null != metricsName ? metricsName
+                : "JsonEncoder@" + Integer.toHexString(System.identityHashCode(this));
         try {
+            ObjectName objectName = new ObjectName("com.blacklocus.logback.s3:type=JsonEncoder,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                // Most likely left behind by an encoder that was never stopped or closed.
+                addWarn("Replacing metrics already registered as '" + name + "'");
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(encoderMetrics, objectName);
+            metricsObjectName = objectName;
+        } catch (Exception e) {
+            addWarn("Could not register metrics with JMX as '" + name + "'", e);
+        }
+    }
 
-            if (eventObject instanceof ILoggingEvent) {
-                ILoggingEvent e = (ILoggingEvent) eventObject;
-                RawLog.Builder builder = RawLog.newBuilder()
-                        .setLoggerName(e.getLoggerName())
-                        .setLogLevel(LogLevel.valueOf(e.getLevel().toString()))
-                        .setLogDateTime(new DateTime(e.getTimeStamp()).withZone(DateTimeZone.UTC).toString())
-                        .setFormat(e.getMessage())
-                        .setArgs(stringify(e.getArgumentArray()));
-
-                Map<String, String> mdc = e.getMDCPropertyMap();
-                Map<CharSequence, CharSequence> mdcCopy = new HashMap<>(mdc.size());
-                for (Map.Entry<String, String> entry : mdc.entrySet()) {
-                    mdcCopy.put(entry.getKey(), entry.getValue());
-                }
-                builder.setContext(mdcCopy);
+    private synchronized void unregisterMetrics() {
+        if (null != metricsObjectName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsObjectName);
+            } catch (Exception e) {
+                addWarn("Could not unregister metrics " + metricsObjectName, e);
+            }
+            metricsObjectName = null;
+        }
+    }
 
-                if (null != renderPatternLayout) {
-                    String rendered = renderPatternLayout.doLayout(e);
-                    builder.setRendered(rendered);
+    @Override
+    public void init(OutputStream os) throws IOException {
+        registerMetrics();
+        resetFileState();
+        indexWriter = null;
+        OutputStream target = os;
+        if (index) {
+            if (os instanceof ResilientFileOutputStream) {
+                File file = ((ResilientFileOutputStream) os).getFile();
+                if (0 == file.length() && LogIndexWriter.indexFile(file).length() > LogIndexWriter.HEADER_SIZE) {
+                    addWarn("Starting over the index of [" + file + "], which was rolled or truncated without it. Leave"
+                            + " the rolling appender's file unset to keep the index of every rolled file.");
                 }
-
-                if (lineNumbers) {
-                    String lineNumber = new LineOfCallerConverter().convert(e);
-                    if (!CallerData.NA.equals(lineNumber)) {
-                        builder.setLineNumber(Integer.valueOf(lineNumber));
-                    }
+                try {
+                    byte indexCodec = null == codec ? LogIndexWriter.CODEC_NONE : LogIndexWriter.CODEC_GZIP;
+                    indexWriter = LogIndexWriter.open(os, file, indexCodec, indexBlockRecords, indexBlockMillis);
+                    target = indexWriter;
+                } catch (IOException e) {
+                    addWarn("Could not open the index of [" + file + "], not indexing it.", e);
                 }
+            } else {
+                addWarn("index only works with file appenders, not indexing.");
+            }
+        }
+        compressor = null == codec ? null
+                : BlockCompressingOutputStream.create(codec, target, compressionBlockSize, compressionFlushInterval);
+        if (null != indexWriter) {
+            indexWriter.setCompressor(compressor);
+        }
+        super.init(null == compressor ? target : compressor);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Otherwise the MBean would pin the encoder and its listeners after a reconfiguration.
+        unregisterMetrics();
+        super.close();
+        if (null != compressor) {
+            // The appender closes the underlying stream itself.
+            compressor.finish();
+            compressor = null;
+        }
+        if (null != indexWriter) {
+            indexWriter.finish();
+            indexWriter = null;
+        }
+    }
+
+    /**
+     * @return whether what is written for an event depends on what was written before it in the same file, as with
+     * exception dedup and the call site dictionary. Appenders that call {@link #writeEvent} directly must then encode
+     * events one at a time, in the order they end up in the file.
+     */
+    boolean hasFileState() {
+        return (exceptions && exceptionDedupInterval > 0) || callSiteDictionary;
+    }
+
+    /**
+     * Forgets which traces and call sites were written, for appenders that start a new file without {@link #init}. A
+     * new file must carry the full body of every trace and the format of every call site it refers to.
+     */
+    void resetFileState() {
+        exceptionWriter.reset();
+        callSites.reset();
+    }
+
+    /**
+     * Turns off exception dedup and the call site dictionary, for appenders that can't encode in file order.
+     */
+    void disableFileState() {
+        exceptionDedupInterval = 0;
+        exceptionWriter = new ExceptionWriter(0);
+        callSiteDictionary = false;
+    }
 
-                RawLog rawLog = builder.build();
-                return rawLog.toString() + NEW_LINE;
+    /**
+     * @return os wrapped to compress as configured, for appenders that write events without {@link #init}
+     */
+    OutputStream compress(OutputStream os) {
+        return null == codec ? os
+                : BlockCompressingOutputStream.create(codec, os, compressionBlockSize, compressionFlushInterval);
+    }
+
+    /**
+     * @return file extension of output compressed as configured, empty if not compressing
+     */
+    String compressionExtension() {
+        return null == codec ? "" : codec == BlockCompressingOutputStream.Codec.GZIP ? ".gz" : ".lz4";
+    }
+
+    @Override
+    public void doEncode(E event) throws IOException {
+        if (event instanceof ILoggingEvent && !sample((ILoggingEvent) event)) {
+            return;
+        }
+        LogIndexWriter indexWriter = this.indexWriter;
+        if (null != indexWriter && event instanceof ILoggingEvent) {
+            indexWriter.startRecord(((ILoggingEvent) event).getTimeStamp());
+        }
+        if (!directUtf8 || !(event instanceof ILoggingEvent)) {
+            super.doEncode(event);
+            return;
+        }
+
+        Utf8JsonWriter out = byteWriters.acquire();
+        try {
+            out.reset();
+            try {
+                writeEvent((ILoggingEvent) event, out);
+            } catch (Exception e) {
+                debug(e);
+                return;
+            }
+            out.writeTo(outputStream);
+            if (isImmediateFlush()) {
+                outputStream.flush();
+            }
+        } finally {
+            byteWriters.release(out);
+        }
+    }
+
+    String _doLayout(E eventObject) {
+        try {
+
+            if (eventObject instanceof ILoggingEvent) {
+                CharJsonWriter out = writers.acquire();
+                try {
+                    out.reset();
+                    writeEvent((ILoggingEvent) eventObject, out);
+                    return out.toString();
+                } finally {
+                    writers.release(out);
+                }
             }
 
         } catch (Exception e) {
@@ -124,22 +756,298 @@ public class JsonEncoder<E> extends LayoutWrappingEncoder<E> {
         return null; // hmmmmmm
     }
 
-    List<CharSequence> stringify(Object[] args) throws IOException {
+    /**
+     * @return whether the event makes it past sampling and rate limiting. Appenders that call {@link #writeEvent}
+     * directly check this first, as early as they can.
+     */
+    boolean sample(ILoggingEvent e) {
+        EventSampler sampler = this.sampler;
+        return null == sampler || sampler.accept(e);
+    }
+
+    /**
+     * Writes the event with the same field layout RawLog.toString() has always produced, terminated by a new line.
+     * Preceded by sampling summaries, when one is due.
+     */
+    void writeEvent(ILoggingEvent e, JsonWriter out) throws IOException {
+        LogIndexWriter indexWriter = this.indexWriter;
+        if (null != sampler) {
+            for (ILoggingEvent summary : sampler.summaries(e.getTimeStamp())) {
+                writeWithinBudget(summary, out, null);
+                observe(indexWriter, summary);
+            }
+        }
+        EncoderMetrics encoderMetrics = this.encoderMetrics;
+        if (null == encoderMetrics) {
+            writeWithinBudget(e, out, null);
+            observe(indexWriter, e);
+            return;
+        }
+
+        long[] nanos = stageNanos.acquire();
+        try {
+            int start = out.size();
+            long started = System.nanoTime();
+            try {
+                writeWithinBudget(e, out, nanos);
+            } catch (IOException | RuntimeException failure) {
+                encoderMetrics.failed(e, failure);
+                throw failure;
+            }
+            nanos[EncoderMetrics.Stage.TOTAL.ordinal()] = System.nanoTime() - started;
+            encoderMetrics.encoded(e, out.size() - start, nanos);
+            observe(indexWriter, e);
+        } finally {
+            stageNanos.release(nanos);
+        }
+    }
+
+    /**
+     * Counts an event in the current index block once it has been encoded, so that events that fail don't count.
+     */
+    private static void observe(LogIndexWriter indexWriter, ILoggingEvent e) {
+        if (null != indexWriter) {
+            indexWriter.observe(e.getLevel(), e.getTimeStamp());
+        }
+    }
+
+    /**
+     * Writes the event in at most maxEventSize. If it doesn't fit, it is written again in its minimal form, so that at
+     * least where and what was logged makes it out.
+     */
+    private void writeWithinBudget(ILoggingEvent e, JsonWriter out, long[] nanos) throws IOException {
+        if (maxEventSize <= 0) {
+            writeFields(e, out, nanos, false);
+            return;
+        }
+        int start = out.size();
+        out.limit = (int) Math.min(Integer.MAX_VALUE, (long) start + maxEventSize);
+        try {
+            writeFields(e, out, nanos, false);
+        } catch (LimitExceededException tooLarge) {
+            out.truncate(start);
+            try {
+                writeFields(e, out, nanos, true);
+            } catch (LimitExceededException stillTooLarge) {
+                out.truncate(start);
+                throw new IOException("Event does not fit in maxEventSize " + maxEventSize + " even without args");
+            }
+        } finally {
+            out.limit = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @param nanos   where to record how long each stage took, or null to not time them
+     * @param minimal leave out rendered, args, context and the exception body, and truncate format and message
+     */
+    private void writeFields(ILoggingEvent e, JsonWriter out, long[] nanos, boolean minimal) throws IOException {
+        out.raw(LOGGER_NAME_KEY);
+        if (null == e.getLoggerName()) {
+            out.nullValue();
+        } else {
+            out.raw(loggerNames.get(e.getLoggerName()));
+        }
+        out.raw(LOG_LEVEL_KEY).raw(logLevel(e.getLevel()));
+        out.raw(LOG_DATE_TIME_KEY);
+        timestampFormatter.write(e.getTimeStamp(), out);
+
+        out.raw(LINE_NUMBER_KEY);
+        long lap = null == nanos ? 0 : System.nanoTime();
+        Integer lineNumber = lineNumbers ? lineNumberOf(e) : null;
+        lap = lap(nanos, EncoderMetrics.Stage.CALLER_DATA, lap);
+        if (null == lineNumber) {
+            out.nullValue();
+        } else {
+            out.number(lineNumber);
+        }
+
+        out.raw(RENDERED_KEY);
+        if (minimal) {
+            out.nullValue();
+        } else {
+            writeRendered(e, out);
+        }
+        lap = lap(nanos, EncoderMetrics.Stage.RENDER, lap);
+        CallSiteIds.CallSite callSite = callSiteIds
+                ? callSites.get(e.getLoggerName(), e.getMessage(), callSiteLines && null != lineNumber ? lineNumber : 0)
+                : null;
+        out.raw(FORMAT_KEY);
+        if (callSiteDictionary && !callSites.isFirst(callSite)) {
+            out.nullValue();
+        } else {
+            out.string(e.getMessage(), minimal ? maxEventSize / 2 : Integer.MAX_VALUE);
+        }
+
+        out.raw(ARGS_KEY);
+        if (!minimal) {
+            writeArgs(e.getArgumentArray(), out);
+        } else if (null != e.getArgumentArray() && e.getArgumentArray().length > 0) {
+            out.string(JsonWriter.TRUNCATED);
+        }
+        lap = lap(nanos, EncoderMetrics.Stage.ARGS, lap);
+
+        out.raw(CONTEXT_KEY);
+        if (minimal) {
+            out.raw("{}");
+        } else {
+            contextWriter.write(e.getMDCPropertyMap(), out);
+        }
+        lap = lap(nanos, EncoderMetrics.Stage.CONTEXT, lap);
+        boolean traceWritten = false;
+        if (exceptions) {
+            out.raw(EXCEPTION_KEY);
+            if (minimal) {
+                exceptionWriter.writeMinimal(e.getThrowableProxy(), out, maxEventSize / 4);
+            } else {
+                traceWritten = exceptionWriter.write(e.getThrowableProxy(), e.getTimeStamp(), out);
+            }
+        }
+        lap(nanos, EncoderMetrics.Stage.EXCEPTION, lap);
+        if (null != callSite) {
+            out.raw(CALL_SITE_ID_KEY).raw(callSite.json);
+        }
+        out.raw(END);
+        if (callSiteDictionary && !minimal) {
+            // Only a full format counts as its first appearance.
+            callSites.written(callSite);
+        }
+        if (traceWritten) {
+            // Likewise, only a body that made it into the event counts, not one dropped for being over budget.
+            exceptionWriter.written(e.getThrowableProxy(), e.getTimeStamp());
+        }
+    }
+
+    /**
+     * Records the time since the last lap against the stage, if timing.
+     *
+     * @return now, or 0 if not timing
+     */
+    private static long lap(long[] nanos, EncoderMetrics.Stage stage, long since) {
+        if (null == nanos) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        nanos[stage.ordinal()] = now - since;
+        return now;
+    }
+
+    /**
+     * @return the level as a quoted RawLog LogLevel symbol
+     */
+    static JsonFragment logLevel(Level level) {
+        switch (level.toInt()) {
+            case Level.TRACE_INT:
+                return LOG_LEVELS[LogLevel.TRACE.ordinal()];
+            case Level.DEBUG_INT:
+                return LOG_LEVELS[LogLevel.DEBUG.ordinal()];
+            case Level.INFO_INT:
+                return LOG_LEVELS[LogLevel.INFO.ordinal()];
+            case Level.WARN_INT:
+                return LOG_LEVELS[LogLevel.WARN.ordinal()];
+            case Level.ERROR_INT:
+                return LOG_LEVELS[LogLevel.ERROR.ordinal()];
+            default:
+                // Fails just as RawLog would.
+                return LOG_LEVELS[LogLevel.valueOf(level.toString()).ordinal()];
+        }
+    }
+
+    void writeRendered(ILoggingEvent e, JsonWriter out) {
+        if (render == RenderMode.MESSAGE_ONLY) {
+            out.string(e.getFormattedMessage());
+        } else if (null == renderPatternLayout
+                || (render == RenderMode.ON_LEVEL && !e.getLevel().isGreaterOrEqual(renderThreshold))) {
+            out.nullValue();
+        } else if (null != simpleRenderer && null == e.getThrowableProxy()) {
+            simpleRenderer.write(e, out);
+        } else {
+            out.string(renderPatternLayout.doLayout(e));
+        }
+    }
+
+    /**
+     * @return the line number of the logger invocation, or null if unknown or not sampled
+     */
+    Integer lineNumberOf(ILoggingEvent e) {
+        if (e instanceof CapturedEvent) {
+            // Must be looked up by whichever thread captured it, while the caller was still on the stack.
+            return ((CapturedEvent) e).getLineNumber();
+        }
+        return callerLocator.lineNumber(e);
+    }
+
+    void writeArgs(Object[] args, JsonWriter out) throws IOException {
         if (args == null) {
-            return Collections.emptyList();
+            return;
         }
 
-        List<CharSequence> list = new ArrayList<>(args.length);
-        for (Object arg : args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                out.raw(", ");
+            }
+            Object arg = args[i];
             if (null == arg) {
-                list.add(null);
+                out.nullValue();
             } else if (arg instanceof String) {
-                list.add(Objects.toString(arg));
+                out.string((String) arg, argumentWriters.maxSize());
+            } else if (embedArgs) {
+                embedArg(arg, out);
             } else {
-                list.add(mapper.writeValueAsString(arg));
+                stringifyArg(arg, out);
+            }
+        }
+    }
+
+    /**
+     * Writes the argument as a JSON value, or if it's larger than argMaxSize, as a string of as much of it as fits.
+     */
+    private void embedArg(Object arg, JsonWriter out) throws IOException {
+        int mark = out.size();
+        int eventLimit = out.limit;
+        out.limit = (int) Math.min(eventLimit, (long) mark + argumentWriters.maxSize());
+        try {
+            argumentWriters.write(arg, out);
+        } catch (LimitExceededException e) {
+            if (out.limit == eventLimit) {
+                // The whole event is too large, not just this argument.
+                throw e;
+            }
+            out.truncate(mark);
+            out.limit = eventLimit;
+            stringifyArg(arg, out);
+        } finally {
+            out.limit = eventLimit;
+        }
+    }
+
+    /**
+     * Writes the argument as a string containing its JSON, cut short at argMaxSize.
+     */
+    private void stringifyArg(Object arg, JsonWriter out) throws IOException {
+        CharJsonWriter json = argWriters.acquire();
+        try {
+            boolean truncated = argumentWriters.writeBounded(arg, json);
+            int end = json.length();
+            if (truncated && end > 0 && Character.isHighSurrogate(json.charAt(end - 1))) {
+                end--;
+            }
+            out.string(json, end, truncated);
+        } finally {
+            argWriters.release(json);
+        }
+    }
+
+    static List<String> split(String commaSeparated) {
+        List<String> values = new ArrayList<>();
+        if (null != commaSeparated) {
+            for (String value : commaSeparated.split(",")) {
+                if (!value.trim().isEmpty()) {
+                    values.add(value.trim());
+                }
             }
         }
-        return list;
+        return values;
     }
 
     void debug(Object message) {
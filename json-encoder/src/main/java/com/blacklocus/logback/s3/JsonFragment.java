@@ -0,0 +1,50 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A piece of JSON, already escaped and encoded both as chars and as UTF-8 bytes, so that frequently repeated content
+ * can be copied into a {@link JsonWriter} instead of being escaped and encoded every time.
+ */
+public final class JsonFragment {
+
+    final char[] chars;
+    final byte[] utf8;
+
+    private JsonFragment(String json) {
+        this.chars = json.toCharArray();
+        this.utf8 = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param json valid, already escaped JSON content
+     */
+    static JsonFragment raw(String json) {
+        return new JsonFragment(json);
+    }
+
+    /**
+     * @return the value as a quoted, escaped JSON string
+     */
+    static JsonFragment string(String value) {
+        CharJsonWriter out = new CharJsonWriter(value.length() + 8);
+        out.string(value);
+        return new JsonFragment(out.toString());
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+/**
+ * Writes JSON tokens straight into a reusable buffer. Instances are meant to be reset and reused between events rather
+ * than allocated per event. {@link CharJsonWriter} buffers chars, {@link Utf8JsonWriter} buffers UTF-8 bytes.
+ * <p>
+ * String escaping deliberately mirrors Avro's GenericData.toString so that output stays identical to what
+ * RawLog.toString() used to produce.
+ * <p>
+ * Public only so that custom {@link ArgumentWriter}s can write to it.
+ */
+public abstract class JsonWriter {
+
+    static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Marks the end of a string value that was cut short. */
+    static final String TRUNCATED = "...";
+
+    /** Escape sequences for every char below 0xA0 that needs one, null otherwise. */
+    static final char[][] ESCAPES = new char[0xA0][];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = unicodeEscape((char) c);
+        }
+        for (int c = 0x7F; c < 0xA0; c++) {
+            ESCAPES[c] = unicodeEscape((char) c);
+        }
+        ESCAPES['"'] = new char[]{'\\', '"'};
+        ESCAPES['\\'] = new char[]{'\\', '\\'};
+        ESCAPES['\b'] = new char[]{'\\', 'b'};
+        ESCAPES['\f'] = new char[]{'\\', 'f'};
+        ESCAPES['\n'] = new char[]{'\\', 'n'};
+        ESCAPES['\r'] = new char[]{'\\', 'r'};
+        ESCAPES['\t'] = new char[]{'\\', 't'};
+    }
+
+    /** Writes that would take {@link #size()} past this throw {@link LimitExceededException}, leaving them out. */
+    int limit = Integer.MAX_VALUE;
+
+    /** How deeply nested the argument value being written is, for {@link ArgumentWriters} to bound. */
+    int depth;
+
+    /**
+     * While true, strings are escaped the way Jackson escapes them, only control chars, quotes and backslashes, rather
+     * than the way Avro does. {@link ArgumentWriters} sets it so argument values come out as Jackson wrote them.
+     */
+    boolean jacksonEscapes;
+
+    /**
+     * Appends the char verbatim.
+     */
+    public abstract JsonWriter raw(char c);
+
+    /**
+     * Appends the string verbatim. Use for JSON punctuation and pre-escaped content.
+     */
+    public abstract JsonWriter raw(String s);
+
+    /**
+     * Appends the chars verbatim.
+     */
+    public abstract JsonWriter raw(char[] chars, int offset, int length);
+
+    /**
+     * Appends pre-escaped content verbatim.
+     */
+    public abstract JsonWriter raw(JsonFragment fragment);
+
+    /**
+     * Appends the value as a quoted, escaped JSON string, or the null literal.
+     */
+    public JsonWriter string(CharSequence s) {
+        return null == s ? nullValue() : string(s, s.length(), false);
+    }
+
+    /**
+     * Like {@link #string(CharSequence)}, but values longer than maxLength are cut short and marked with
+     * {@link #TRUNCATED}.
+     */
+    public JsonWriter string(CharSequence s, int maxLength) {
+        if (null == s) {
+            return nullValue();
+        }
+        if (s.length() <= maxLength) {
+            return string(s, s.length(), false);
+        }
+        int end = maxLength;
+        if (end > 0 && Character.isHighSurrogate(s.charAt(end - 1))) {
+            end--;
+        }
+        return string(s, end, true);
+    }
+
+    /**
+     * Appends the first end chars of s quoted and escaped, with {@link #TRUNCATED} before the closing quote if
+     * truncated.
+     */
+    JsonWriter string(CharSequence s, int end, boolean truncated) {
+        raw('"');
+        escaped(s, end);
+        if (truncated) {
+            raw(TRUNCATED);
+        }
+        return raw('"');
+    }
+
+    /**
+     * Appends the first end chars of s escaped, without quotes. For building up a string value piece by piece between
+     * a raw opening and closing quote.
+     */
+    abstract JsonWriter escaped(CharSequence s, int end);
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    abstract void reset();
+
+    /**
+     * Discards everything written after the given size.
+     */
+    abstract void truncate(int size);
+
+    /**
+     * @return number of chars or bytes currently buffered
+     */
+    abstract int size();
+
+    abstract int capacity();
+
+    /**
+     * Appends the number in decimal.
+     */
+    public JsonWriter number(long v) {
+        if (v == Long.MIN_VALUE) {
+            return raw(Long.toString(v));
+        }
+        if (v < 0) {
+            raw('-');
+            v = -v;
+        }
+        long div = 1;
+        while (v / div >= 10) {
+            div *= 10;
+        }
+        for (; div > 0; div /= 10) {
+            raw((char) ('0' + (v / div) % 10));
+        }
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        return raw("null");
+    }
+
+    boolean needsEscape(char c) {
+        if (jacksonEscapes) {
+            return c < 0x20 || c == '"' || c == '\\';
+        }
+        return c < 0xA0 ? null != ESCAPES[c] : (c >= 0x2000 && c <= 0x20FF);
+    }
+
+    static char[] unicodeEscape(char c) {
+        return new char[]{'\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF], HEX[c & 0xF]};
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+/**
+ * Thrown by a {@link JsonWriter} asked to write past its limit. Carries no stack trace and is shared, since it is
+ * control flow for cutting oversized output short rather than an error.
+ */
+class LimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    static final LimitExceededException INSTANCE = new LimitExceededException();
+
+    private LimitExceededException() {
+        super("JsonWriter limit exceeded", null, false, false);
+    }
+
+    /**
+     * @return whether t is, or was caused by, a LimitExceededException. Jackson wraps what its Writer throws.
+     */
+    static boolean causedBy(Throwable t) {
+        for (; null != t; t = t.getCause()) {
+            if (t instanceof LimitExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link ObjectStoreClient} keeping objects as files under a directory, keys being relative paths. Parts are staged
+ * under .uploads in the same directory and the finished object is moved into place in one rename, so readers never see
+ * a partial object.
+ *
+ * <pre>
+ * &lt;client class="com.blacklocus.logback.s3.LocalFileObjectStore"&gt;
+ *   &lt;directory&gt;/var/log/uploaded&lt;/directory&gt;
+ * &lt;/client&gt;
+ * </pre>
+ */
+public class LocalFileObjectStore implements ObjectStoreClient {
+
+    static final String UPLOADS = ".uploads";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // Configurable things
+
+    String directory;
+
+    public LocalFileObjectStore() {
+    }
+
+    public LocalFileObjectStore(String directory) {
+        this.directory = directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String startUpload(String key) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        mkdirs(uploadDirectory(uploadId));
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, InputStream data, long length) throws IOException {
+        File part = new File(uploadDirectory(uploadId), Integer.toString(partNumber));
+        CRC32 crc = new CRC32();
+        long copied = 0;
+        try (OutputStream out = new FileOutputStream(part)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (int n; (n = data.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+                crc.update(buffer, 0, n);
+                copied += n;
+            }
+        }
+        if (copied != length) {
+            throw new IOException("Part " + partNumber + " of " + key + " had " + copied + " bytes, expected " + length);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    @Override
+    public void completeUpload(String key, String uploadId, List<String> partTags) throws IOException {
+        File uploadDirectory = uploadDirectory(uploadId);
+        File target = new File(root(), key);
+        mkdirs(target.getParentFile());
+        File assembling = new File(uploadDirectory, "object");
+        try (OutputStream out = new FileOutputStream(assembling)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (int i = 0; i < partTags.size(); i++) {
+                CRC32 crc = new CRC32();
+                try (InputStream in = new FileInputStream(new File(uploadDirectory, Integer.toString(i + 1)))) {
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        out.write(buffer, 0, n);
+                        crc.update(buffer, 0, n);
+                    }
+                }
+                if (!Long.toHexString(crc.getValue()).equals(partTags.get(i))) {
+                    throw new IOException("Part " + (i + 1) + " of " + key + " doesn't match its tag");
+                }
+            }
+        }
+        if (!assembling.renameTo(target)) {
+            throw new IOException("Could not move " + assembling + " to " + target);
+        }
+        delete(uploadDirectory);
+    }
+
+    @Override
+    public void abortUpload(String key, String uploadId) throws IOException {
+        delete(uploadDirectory(uploadId));
+    }
+
+    private File root() throws IOException {
+        if (null == directory) {
+            throw new IOException("No directory set for LocalFileObjectStore");
+        }
+        return new File(directory);
+    }
+
+    private File uploadDirectory(String uploadId) throws IOException {
+        return new File(new File(root(), UPLOADS), uploadId);
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+    }
+
+    private static void delete(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    throw new IOException("Could not delete " + file);
+                }
+            }
+        }
+        if (dir.exists() && !dir.delete()) {
+            throw new IOException("Could not delete " + dir);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads JSON lines written by {@link JsonEncoder} with index on, using the file.idx sidecar to skip blocks that fall
+ * outside a time window or lack the levels asked for. Only the blocks left are read and decompressed, and their lines
+ * are checked one by one only when a block straddles the window or has lower levels too. Parts of the file the index
+ * doesn't cover, such as the tail of a file that wasn't closed cleanly, are read and checked in full. Without a
+ * sidecar the whole file is.
+ * <p>
+ * Also runnable, printing the matching lines of a file. Times are ISO-8601 or epoch millis, - for no bound:
+ * <pre>
+ * java -cp json-encoder.jar:... com.blacklocus.logback.s3.LogIndexReader blacklocus.json 2015-06-01T12:00 - ERROR
+ * </pre>
+ */
+public class LogIndexReader implements Closeable {
+
+    /**
+     * A contiguous range of the file and what the index knows about the records in it.
+     */
+    public static final class Block {
+        public final long start;
+        public final long end;
+        public final long minTimestamp;
+        public final long maxTimestamp;
+        /** Number of records, 0 if the range isn't indexed. */
+        public final int records;
+        private final int levels;
+
+        Block(long start, long end, long minTimestamp, long maxTimestamp, int records, int levels) {
+            this.start = start;
+            this.end = end;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+            this.records = records;
+            this.levels = levels;
+        }
+
+        static Block unindexed(long start, long end) {
+            return new Block(start, end, Long.MIN_VALUE, Long.MAX_VALUE, 0, LogIndexWriter.ALL_LEVELS);
+        }
+
+        public boolean isIndexed() {
+            return records > 0;
+        }
+
+        public boolean hasLevel(Level level) {
+            return 0 != (levels & LogIndexWriter.levelBit(level));
+        }
+
+        @Override
+        public String toString() {
+            return "Block{" + start + "-" + end + ", " + minTimestamp + "-" + maxTimestamp + ", " + records + " records}";
+        }
+    }
+
+    private static final String LOG_DATE_TIME = "\"logDateTime\": \"";
+    private static final String LOG_LEVEL = "\"logLevel\": \"";
+    private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final boolean gzip;
+    private final List<Block> blocks;
+
+    public LogIndexReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        try {
+            File indexFile = LogIndexWriter.indexFile(file);
+            if (indexFile.exists()) {
+                List<Block> indexed = new ArrayList<>();
+                gzip = readIndex(indexFile, indexed);
+                blocks = Collections.unmodifiableList(fillGaps(indexed, channel.size()));
+            } else {
+                gzip = file.getName().endsWith(".gz");
+                blocks = Collections.singletonList(Block.unindexed(0, channel.size()));
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return blocks covering the whole file in order, unindexed ones standing in for what the index is missing
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @param from     earliest timestamp, inclusive
+     * @param to       latest timestamp, inclusive
+     * @param minLevel least severe level to return, or null for all
+     * @return the lines within the window at or above minLevel, in file order
+     */
+    public Lines read(long from, long to, Level minLevel) {
+        return new Lines(from, to, minLevel);
+    }
+
+    /**
+     * @return the lines at ERROR
+     */
+    public Lines errors() {
+        return read(Long.MIN_VALUE, Long.MAX_VALUE, Level.ERROR);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * @return whether the file is gzipped
+     */
+    private static boolean readIndex(File indexFile, List<Block> blocks) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            long length = indexFile.length();
+            if (length < LogIndexWriter.HEADER_SIZE || in.readInt() != LogIndexWriter.MAGIC) {
+                throw new IOException("Not a log index: " + indexFile);
+            }
+            byte version = in.readByte();
+            if (version != LogIndexWriter.VERSION) {
+                throw new IOException("Unsupported log index version " + version + ": " + indexFile);
+            }
+            byte codec = in.readByte();
+            if (codec != LogIndexWriter.CODEC_NONE && codec != LogIndexWriter.CODEC_GZIP) {
+                throw new IOException("Unsupported compression " + codec + " in " + indexFile);
+            }
+            // A trailing partial entry is what's left of a crash mid-write.
+            long entries = (length - LogIndexWriter.HEADER_SIZE) / LogIndexWriter.ENTRY_SIZE;
+            for (long i = 0; i < entries; i++) {
+                blocks.add(new Block(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readInt()));
+            }
+            return codec == LogIndexWriter.CODEC_GZIP;
+        }
+    }
+
+    static List<Block> fillGaps(List<Block> indexed, long length) {
+        List<Block> blocks = new ArrayList<>(indexed.size() + 1);
+        long position = 0;
+        for (Block block : indexed) {
+            if (block.start < position || block.end > length) {
+                // Left over from an earlier file with the same name.
+                continue;
+            }
+            if (block.start > position) {
+                blocks.add(Block.unindexed(position, block.start));
+            }
+            blocks.add(block);
+            position = block.end;
+        }
+        if (length > position) {
+            blocks.add(Block.unindexed(position, length));
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the value of the field, which must be a string, or null if absent
+     */
+    static String field(String line, String key) {
+        int start = line.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = line.indexOf('"', start);
+        return end < 0 ? null : line.substring(start, end);
+    }
+
+    /**
+     * @return millis of an ISO-8601 or epoch millis timestamp, or null if it is neither
+     */
+    static Long parseTimestamp(String value) {
+        if (null == value || value.isEmpty()) {
+            return null;
+        }
+        try {
+            boolean digits = true;
+            for (int i = value.charAt(0) == '-' ? 1 : 0; i < value.length() && digits; i++) {
+                digits = Character.isDigit(value.charAt(i));
+            }
+            return digits ? Long.parseLong(value) : ISO_PARSER.parseMillis(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Matching lines, read a block at a time. Closed along with the reader.
+     */
+    public class Lines {
+
+        private final long from;
+        private final long to;
+        private final Level minLevel;
+        private final int wantedLevels;
+        private int next;
+        private Block block;
+        private BufferedReader reader;
+
+        Lines(long from, long to, Level minLevel) {
+            this.from = from;
+            this.to = to;
+            this.minLevel = minLevel;
+            this.wantedLevels = null == minLevel ? LogIndexWriter.ALL_LEVELS : LogIndexWriter.levelsAtLeast(minLevel);
+        }
+
+        /**
+         * @return the next matching line, or null when there are no more
+         */
+        public String readLine() throws IOException {
+            while (true) {
+                if (null == reader && !nextBlock()) {
+                    return null;
+                }
+                String line = reader.readLine();
+                if (null == line) {
+                    reader.close();
+                    reader = null;
+                } else if (matches(line)) {
+                    return line;
+                }
+            }
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (next < blocks.size()) {
+                Block candidate = blocks.get(next++);
+                if (candidate.minTimestamp <= to && candidate.maxTimestamp >= from && 0 != (candidate.levels & wantedLevels)) {
+                    block = candidate;
+                    InputStream in = new RangeInputStream(channel, candidate.start, candidate.end);
+                    reader = new BufferedReader(new InputStreamReader(gzip ? new GZIPInputStream(in) : in,
+                            StandardCharsets.UTF_8));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matches(String line) {
+            if (block.minTimestamp < from || block.maxTimestamp > to) {
+                Long timestamp = parseTimestamp(field(line, LOG_DATE_TIME));
+                if (null != timestamp && (timestamp < from || timestamp > to)) {
+                    return false;
+                }
+            }
+            if (0 != (block.levels & ~wantedLevels)) {
+                String level = field(line, LOG_LEVEL);
+                if (null != level && !Level.toLevel(level).isGreaterOrEqual(minLevel)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads a range of the file with positional reads, leaving the channel's position alone.
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) {
+                return -1;
+            }
+            position += n;
+            return n;
+        }
+
+        /**
+         * GZIPInputStream only looks for another member when this says there is more.
+         */
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LogIndexReader file [from [to [level]]]");
+            System.exit(1);
+        }
+        long from = args.length > 1 ? bound(args[1], Long.MIN_VALUE) : Long.MIN_VALUE;
+        long to = args.length > 2 ? bound(args[2], Long.MAX_VALUE) : Long.MAX_VALUE;
+        Level level = args.length > 3 ? Level.toLevel(args[3]) : null;
+        try (LogIndexReader reader = new LogIndexReader(new File(args[0]))) {
+            Lines lines = reader.read(from, to, level);
+            for (String line; null != (line = lines.readLine()); ) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    private static long bound(String arg, long unbounded) {
+        if ("-".equals(arg)) {
+            return unbounded;
+        }
+        Long millis = parseTimestamp(arg);
+        if (null == millis) {
+            throw new IllegalArgumentException("Not a timestamp: " + arg);
+        }
+        return millis;
+    }
+}
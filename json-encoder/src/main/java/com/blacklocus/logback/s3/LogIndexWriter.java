@@ -0,0 +1,191 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Counts the bytes written to a log file and writes a sparse index of it to a sidecar file: an entry for every block of
+ * consecutive records, giving where the block starts and ends, its earliest and latest timestamp, and which levels it
+ * has. {@link LogIndexReader} uses it to read only the blocks a query needs.
+ * <p>
+ * Sits between the file and the compressor, if any. Blocks of a compressed file end with a compressed block of their
+ * own, so every indexed offset is somewhere decompression can start.
+ * <p>
+ * The index file is a header, {@link #MAGIC}, {@link #VERSION} and the codec byte, followed by fixed size entries.
+ * Each entry is start, end, min timestamp and max timestamp as longs, then the record count and level bits as ints,
+ * all big-endian. A block's entry is written once the next block starts, so a file that wasn't closed cleanly has an
+ * unindexed tail, which readers scan in full.
+ */
+class LogIndexWriter extends OutputStream {
+
+    static final int MAGIC = 0x4A494458; // JIDX
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 6;
+    static final int ENTRY_SIZE = 40;
+
+    static final byte CODEC_NONE = 0;
+    static final byte CODEC_GZIP = 1;
+
+    static final int ALL_LEVELS = 0x1F;
+
+    private final OutputStream out;
+    private final OutputStream index;
+    private final int blockRecords;
+    private final long blockMillis;
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    private BlockCompressingOutputStream compressor;
+    private long offset;
+
+    private long blockStart;
+    private int records;
+    private long minTimestamp;
+    private long maxTimestamp;
+    private int levels;
+
+    private LogIndexWriter(OutputStream out, long offset, OutputStream index, int blockRecords, long blockMillis) {
+        this.out = out;
+        this.offset = offset;
+        this.blockStart = offset;
+        this.index = index;
+        this.blockRecords = blockRecords;
+        this.blockMillis = blockMillis;
+    }
+
+    /**
+     * Starts indexing what is written to out, which appends to file, in file's sidecar. The sidecar is started over if
+     * file is empty and appended to otherwise.
+     */
+    static LogIndexWriter open(OutputStream out, File file, byte codec, int blockRecords, long blockMillis)
+            throws IOException {
+        long offset = file.length();
+        File indexFile = indexFile(file);
+        boolean fresh = offset == 0 || !indexFile.exists();
+        OutputStream index = new FileOutputStream(indexFile, !fresh);
+        if (fresh) {
+            index.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).put(codec).array());
+        }
+        return new LogIndexWriter(out, offset, index, blockRecords, blockMillis);
+    }
+
+    static File indexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    static int levelBit(Level level) {
+        switch (level.toInt()) {
+            case Level.TRACE_INT:
+                return 1;
+            case Level.DEBUG_INT:
+                return 1 << 1;
+            case Level.INFO_INT:
+                return 1 << 2;
+            case Level.WARN_INT:
+                return 1 << 3;
+            case Level.ERROR_INT:
+                return 1 << 4;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return bits of all levels at least as severe as level
+     */
+    static int levelsAtLeast(Level level) {
+        return ALL_LEVELS & ~(levelBit(level) - 1);
+    }
+
+    /**
+     * Called by the compressor's owner once it exists, so blocks can end on a compressed block boundary.
+     */
+    void setCompressor(BlockCompressingOutputStream compressor) {
+        this.compressor = compressor;
+    }
+
+    /**
+     * Called before writing a record stamped at timestamp, ending the current block if it is full or spans too long.
+     */
+    void startRecord(long timestamp) throws IOException {
+        if (records > 0 && (records >= blockRecords || timestamp - minTimestamp >= blockMillis)) {
+            endBlock();
+        }
+    }
+
+    /**
+     * Adds a record about to be written to the current block.
+     */
+    void observe(Level level, long timestamp) {
+        if (records++ == 0) {
+            minTimestamp = timestamp;
+            maxTimestamp = timestamp;
+        } else {
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+        levels |= levelBit(level);
+    }
+
+    /**
+     * Indexes the last block and closes the sidecar. Called after the compressor is finished.
+     */
+    void finish() throws IOException {
+        try {
+            endBlock();
+        } finally {
+            index.close();
+        }
+    }
+
+    private void endBlock() throws IOException {
+        if (records == 0) {
+            return;
+        }
+        if (null != compressor) {
+            compressor.endBlock();
+        }
+        entry.clear();
+        entry.putLong(blockStart).putLong(offset).putLong(minTimestamp).putLong(maxTimestamp).putInt(records).putInt(levels);
+        index.write(entry.array());
+        blockStart = offset;
+        records = 0;
+        levels = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        offset++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        offset += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
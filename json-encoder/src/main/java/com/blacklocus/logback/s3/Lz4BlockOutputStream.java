@@ -0,0 +1,213 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes each block as a complete LZ4 frame (https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md) holding a
+ * single block, compressed with a plain greedy LZ4 block compressor. Concatenated frames are what lz4 -d expects.
+ */
+class Lz4BlockOutputStream extends BlockCompressingOutputStream {
+
+    static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x184D2204;
+    // Version 01, independent blocks, no block or content checksums, no content size, no dictionary.
+    private static final int FLG = 0x60;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int ML_BITS = 4;
+    private static final int ML_MASK = (1 << ML_BITS) - 1;
+    private static final int RUN_MASK = (1 << (8 - ML_BITS)) - 1;
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final byte[] header = new byte[11];
+    private final byte[] compressed;
+    private final int[] table = new int[1 << HASH_LOG];
+
+    Lz4BlockOutputStream(OutputStream out, int blockSize, long flushInterval) {
+        super(out, blockSize, flushInterval);
+        GzipBlockOutputStream.writeIntLE(MAGIC, header, 0);
+        header[4] = (byte) FLG;
+        header[5] = (byte) (blockMaxSizeId(blockSize) << 4);
+        header[6] = (byte) (xxh32(header, 4, 2) >>> 8);
+        compressed = new byte[maxCompressedLength(blockSize)];
+    }
+
+    @Override
+    void writeBlock(byte[] block, int len) throws IOException {
+        int n = compress(block, len, compressed, table);
+        if (n < len) {
+            GzipBlockOutputStream.writeIntLE(n, header, 7);
+            out.write(header);
+            out.write(compressed, 0, n);
+        } else {
+            // Incompressible, stored as is.
+            GzipBlockOutputStream.writeIntLE(len | 0x80000000, header, 7);
+            out.write(header);
+            out.write(block, 0, len);
+        }
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+    }
+
+    /**
+     * @return the frame descriptor's block maximum size id: 4 for 64KB, 5 for 256KB, 6 for 1MB, 7 for 4MB
+     */
+    static int blockMaxSizeId(int blockSize) {
+        for (int id = 4; id <= 7; id++) {
+            if (blockSize <= 1 << (8 + 2 * id)) {
+                return id;
+            }
+        }
+        throw new IllegalArgumentException("LZ4 blocks can't be larger than " + MAX_BLOCK_SIZE + " bytes: " + blockSize);
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses src[0, srcLen) into dst as a raw LZ4 block.
+     *
+     * @param dst   at least {@link #maxCompressedLength(int)} long
+     * @param table scratch hash table, overwritten
+     * @return the compressed length
+     */
+    static int compress(byte[] src, int srcLen, byte[] dst, int[] table) {
+        Arrays.fill(table, -1);
+        int mfLimit = srcLen - MF_LIMIT;
+        int matchLimit = srcLen - LAST_LITERALS;
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        int searchMatchNb = 1 << SKIP_TRIGGER;
+
+        while (ip < mfLimit) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                // Step further the longer nothing matches, so incompressible input doesn't cost much.
+                ip += searchMatchNb++ >>> SKIP_TRIGGER;
+                continue;
+            }
+            searchMatchNb = 1 << SKIP_TRIGGER;
+
+            int matchEnd = ip + MIN_MATCH;
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            while (matchEnd < matchLimit && src[matchEnd] == src[ref + matchEnd - ip]) {
+                matchEnd++;
+            }
+
+            int literals = ip - anchor;
+            int token = op++;
+            int tokenValue;
+            if (literals >= RUN_MASK) {
+                tokenValue = RUN_MASK << ML_BITS;
+                op = writeLength(literals - RUN_MASK, dst, op);
+            } else {
+                tokenValue = literals << ML_BITS;
+            }
+            System.arraycopy(src, anchor, dst, op, literals);
+            op += literals;
+
+            int offset = ip - ref;
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+
+            int matchLength = matchEnd - ip - MIN_MATCH;
+            if (matchLength >= ML_MASK) {
+                tokenValue |= ML_MASK;
+                op = writeLength(matchLength - ML_MASK, dst, op);
+            } else {
+                tokenValue |= matchLength;
+            }
+            dst[token] = (byte) tokenValue;
+
+            ip = matchEnd;
+            anchor = ip;
+            if (ip < mfLimit) {
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        int literals = srcLen - anchor;
+        int token = op++;
+        if (literals >= RUN_MASK) {
+            dst[token] = (byte) (RUN_MASK << ML_BITS);
+            op = writeLength(literals - RUN_MASK, dst, op);
+        } else {
+            dst[token] = (byte) (literals << ML_BITS);
+        }
+        System.arraycopy(src, anchor, dst, op, literals);
+        return op + literals;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * xxHash32 with seed 0 of fewer than 16 bytes, all the frame header checksum needs.
+     */
+    static int xxh32(byte[] b, int off, int len) {
+        final int prime1 = 0x9E3779B1;
+        final int prime2 = 0x85EBCA77;
+        final int prime3 = 0xC2B2AE3D;
+        final int prime4 = 0x27D4EB2F;
+        final int prime5 = 0x165667B1;
+        int h = prime5 + len;
+        int i = off;
+        int end = off + len;
+        for (; i + 4 <= end; i += 4) {
+            h += readInt(b, i) * prime3;
+            h = Integer.rotateLeft(h, 17) * prime4;
+        }
+        for (; i < end; i++) {
+            h += (b[i] & 0xFF) * prime5;
+            h = Integer.rotateLeft(h, 11) * prime1;
+        }
+        h ^= h >>> 15;
+        h *= prime2;
+        h ^= h >>> 13;
+        h *= prime3;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,362 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends JSON lines to a file through memory-mapped segments, without any lock on the logging path. Each logging
+ * thread encodes its event with the configured {@link JsonEncoder} into a thread-local buffer, reserves space for it by
+ * atomically advancing the file position, and copies it into the mapped segment(s) covering that space. Segments are
+ * mapped as the position reaches them, which grows the file, and released once every byte in them has been written.
+ * On stop the file is truncated to what was actually written.
+ * <p>
+ * Events are ordered by when their space was reserved, which for concurrent events is not necessarily the order of
+ * their timestamps. Output is not compressed, the encoder's compression setting is ignored. After a crash the file may
+ * end in zeros up to the end of its last segment; with append, those are found and written over on the next start.
+ * <p>
+ * With exception dedup or the call site dictionary, which depend on what came before in the file, encoding and
+ * reserving space happen together under a lock, so that first appearances are written first. Only the copy into the
+ * mapping stays lock free.
+ *
+ * <pre>
+ * &lt;appender name="json" class="com.blacklocus.logback.s3.MappedJsonAppender"&gt;
+ *   &lt;file&gt;/tmp/blacklocus.json&lt;/file&gt;
+ *   &lt;segmentSize&gt;67108864&lt;/segmentSize&gt;
+ *   &lt;encoder class="com.blacklocus.logback.s3.JsonEncoder"&gt;
+ *     &lt;lineNumbers&gt;true&lt;/lineNumbers&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class MappedJsonAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    /** Writers that have grown beyond this are not kept around for reuse. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final long STOP_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong position = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong failed = new AtomicLong();
+    private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final BufferPool<Utf8JsonWriter> writers = new BufferPool.Writers<Utf8JsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        Utf8JsonWriter create() {
+            return new Utf8JsonWriter(1024);
+        }
+    };
+    private final Object ordered = new Object();
+    private volatile boolean running;
+    private boolean inFileOrder;
+    private long startPosition;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    // Configurable things
+
+    String file;
+    boolean append = true;
+    JsonEncoder<ILoggingEvent> encoder;
+    int segmentSize = DEFAULT_SEGMENT_SIZE;
+    int maxFlushTime = 1000;
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    public void setEncoder(JsonEncoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Bytes mapped at a time. Defaults to 64MB, at most 1GB.
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Milliseconds to wait on stop for events being written.
+     */
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * @return events that could not be encoded or written
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void start() {
+        if (null == file) {
+            addError("No file set for appender named [" + name + "].");
+            return;
+        }
+        if (null == encoder) {
+            encoder = new JsonEncoder<>();
+            encoder.setContext(context);
+            encoder.start();
+        }
+        if (null != encoder.compression && !"none".equalsIgnoreCase(encoder.compression.trim())) {
+            addWarn("[" + name + "] writes uncompressed, ignoring the encoder's compression.");
+        }
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            addWarn("segmentSize must be between 1 and " + MAX_SEGMENT_SIZE + ", using " + DEFAULT_SEGMENT_SIZE + ".");
+            segmentSize = DEFAULT_SEGMENT_SIZE;
+        }
+
+        try {
+            File f = new File(file);
+            File parent = f.getAbsoluteFile().getParentFile();
+            if (null != parent && !parent.exists() && !parent.mkdirs()) {
+                addError("Failed to create parent directories for [" + f.getAbsolutePath() + "]");
+                return;
+            }
+            raf = new RandomAccessFile(f, "rw");
+            channel = raf.getChannel();
+            if (append) {
+                startPosition = contentLength(channel);
+            } else {
+                channel.truncate(0);
+                startPosition = 0;
+            }
+        } catch (IOException e) {
+            addError("Failed to open [" + file + "]", e);
+            return;
+        }
+
+        position.set(startPosition);
+        segments.clear();
+        inFileOrder = encoder.hasFileState();
+        running = true;
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxFlushTime);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(STOP_POLL_NANOS);
+        }
+        try {
+            if (inFlight.get() > 0) {
+                // Truncating under a thread still writing to a mapping would crash it. Leave the padding instead.
+                addWarn("Timed out waiting for events being written by [" + name + "]. [" + file
+                        + "] is left padded with zeros.");
+            } else {
+                for (Segment segment : segments.values()) {
+                    segment.buffer.force();
+                }
+                segments.clear();
+                channel.truncate(position.get());
+            }
+        } catch (IOException e) {
+            addError("Failed to truncate [" + file + "]", e);
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                addError("Failed to close [" + file + "]", e);
+            }
+            encoder.stop();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!encoder.sample(event)) {
+            return;
+        }
+        // Announce the write before checking running, so that stop either sees it or this sees stop.
+        inFlight.incrementAndGet();
+        try {
+            if (!running) {
+                return;
+            }
+            Utf8JsonWriter out = writers.acquire();
+            out.reset();
+            try {
+                long start;
+                if (inFileOrder) {
+                    synchronized (ordered) {
+                        encoder.writeEvent(event, out);
+                        start = position.getAndAdd(out.size());
+                    }
+                } else {
+                    encoder.writeEvent(event, out);
+                    start = position.getAndAdd(out.size());
+                }
+                write(out, start);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                encoder.debug(e);
+            }
+            writers.release(out);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Copies out into the space reserved for it at start. If a segment can't be mapped, whatever part of the space
+     * can be is filled with a placeholder instead, so that it neither leaves zeros in the middle of the file nor keeps
+     * its segments from filling up and being released.
+     */
+    private void write(Utf8JsonWriter out, long start) throws IOException {
+        int length = out.size();
+        try {
+            // Map everything first, so that nothing is written unless all of it can be.
+            for (int at = 0; at < length; at += chunk(start, at, length)) {
+                segment((start + at) / segmentSize);
+            }
+        } catch (IOException | RuntimeException e) {
+            copy(placeholder(length), start, true);
+            throw e;
+        }
+        copy(out, start, false);
+    }
+
+    /**
+     * @param lenient skip over segments that can't be mapped, rather than fail
+     */
+    private void copy(Utf8JsonWriter out, long start, boolean lenient) throws IOException {
+        int length = out.size();
+        for (int at = 0, n; at < length; at += n) {
+            n = chunk(start, at, length);
+            long index = (start + at) / segmentSize;
+            Segment segment;
+            try {
+                segment = segment(index);
+            } catch (IOException | RuntimeException e) {
+                if (lenient) {
+                    continue;
+                }
+                throw e;
+            }
+            ByteBuffer dst = segment.buffer.duplicate();
+            dst.position((int) ((start + at) % segmentSize));
+            out.writeTo(at, n, dst);
+
+            if (segment.written.addAndGet(n) == segmentSize) {
+                // Every byte of it is in, so no one will touch it again.
+                segments.remove(index);
+            }
+        }
+    }
+
+    /**
+     * @return how many of the bytes from at on of the space reserved at start fall into the same segment
+     */
+    private int chunk(long start, int at, int length) {
+        return (int) Math.min(length - at, segmentSize - (start + at) % segmentSize);
+    }
+
+    /**
+     * @return an empty JSON object padded with spaces to a line of exactly length bytes
+     */
+    static Utf8JsonWriter placeholder(int length) {
+        Utf8JsonWriter placeholder = new Utf8JsonWriter(length);
+        if (length >= 3) {
+            placeholder.raw("{}");
+        }
+        while (placeholder.size() < length - 1) {
+            placeholder.raw(' ');
+        }
+        if (length > 0) {
+            placeholder.raw('\n');
+        }
+        return placeholder;
+    }
+
+    private Segment segment(long index) throws IOException {
+        Segment segment = segments.get(index);
+        if (null == segment) {
+            // Only taken once per segment, by the first threads to reach it.
+            synchronized (segments) {
+                segment = segments.get(index);
+                if (null == segment) {
+                    long from = index * segmentSize;
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, from, segmentSize);
+                    // Bytes before where this run started writing count as written already.
+                    int preexisting = (int) Math.max(0, Math.min(segmentSize, startPosition - from));
+                    segment = new Segment(buffer, preexisting);
+                    segments.put(index, segment);
+                }
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * @return the length of the file without trailing zeros, which a run that didn't stop cleanly leaves behind
+     */
+    static long contentLength(FileChannel channel) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+        long end = channel.size();
+        while (end > 0) {
+            long from = Math.max(0, end - chunk.capacity());
+            chunk.clear();
+            chunk.limit((int) (end - from));
+            while (chunk.hasRemaining() && channel.read(chunk, from + chunk.position()) >= 0) {
+                // Keep reading until the chunk is full.
+            }
+            for (int i = chunk.position() - 1; i >= 0; i--) {
+                if (chunk.get(i) != 0) {
+                    return from + i + 1;
+                }
+            }
+            end = from;
+        }
+        return 0;
+    }
+
+    private static final class Segment {
+
+        final MappedByteBuffer buffer;
+        final AtomicInteger written;
+
+        Segment(MappedByteBuffer buffer, int written) {
+            this.buffer = buffer;
+            this.written = new AtomicInteger(written);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Where {@link SegmentUploadAppender} sends its segments. Modeled on S3 multipart uploads, so that an S3 client maps
+ * onto it directly, and implemented by {@link LocalFileObjectStore} for local use and tests.
+ * <p>
+ * Parts of one upload are uploaded in parallel, so implementations must be safe to call from several threads at once.
+ * If the implementation is a {@link ch.qos.logback.core.spi.LifeCycle}, the appender stops it when it stops.
+ */
+public interface ObjectStoreClient {
+
+    /**
+     * @return an id for the new upload, passed to the other methods
+     */
+    String startUpload(String key) throws IOException;
+
+    /**
+     * Uploads one part. Parts are numbered from 1 and concatenated in order on completion. May be called again for the
+     * same part number, after a failure, in which case the latest call wins.
+     *
+     * @param data   exactly length bytes, to be read fully before returning
+     * @return a tag identifying the uploaded part, like an S3 ETag
+     */
+    String uploadPart(String key, String uploadId, int partNumber, InputStream data, long length) throws IOException;
+
+    /**
+     * Makes the object visible under key, made of the parts in order.
+     *
+     * @param partTags what {@link #uploadPart} returned for each part, in part number order
+     */
+    void completeUpload(String key, String uploadId, List<String> partTags) throws IOException;
+
+    /**
+     * Discards the parts uploaded so far.
+     */
+    void abortUpload(String key, String uploadId) throws IOException;
+}
@@ -0,0 +1,356 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends JSON lines to a file, encoding events on a pool of worker threads and writing them in order from one thread.
+ * Events are captured into a preallocated {@link EventRingBuffer}. A coordinator thread hands consecutive runs of them
+ * to a {@link ForkJoinPool} as batches, each encoded into its own buffer while the events stay in their ring slots.
+ * Finished batches are written strictly in the order they were handed out, so the file has events in the order they
+ * were appended, and only then are their slots released.
+ * <p>
+ * Serialization scales with the number of workers. Compression, if the encoder has it, still happens on the
+ * coordinator thread. As with {@link AsyncJsonAppender}, arguments are serialized off of the logging thread.
+ * <p>
+ * Since workers encode out of file order, the encoder's exception dedup and call site dictionary, which depend on
+ * what came before in the file, are turned off.
+ *
+ * <pre>
+ * &lt;appender name="json" class="com.blacklocus.logback.s3.ParallelJsonAppender"&gt;
+ *   &lt;file&gt;/tmp/blacklocus.json&lt;/file&gt;
+ *   &lt;workers&gt;8&lt;/workers&gt;
+ *   &lt;encoder class="com.blacklocus.logback.s3.JsonEncoder"&gt;
+ *     &lt;lineNumbers&gt;true&lt;/lineNumbers&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class ParallelJsonAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int BUFFER_INITIAL_CAPACITY = 64 * 1024;
+    /** Batch buffers that have grown beyond this are replaced rather than kept. */
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private EventRingBuffer ring;
+    private ForkJoinPool pool;
+    private Thread coordinator;
+    private volatile boolean running;
+    private volatile boolean coordinatorParked;
+    private OutputStream out;
+
+    // Configurable things
+
+    String file;
+    boolean append = true;
+    JsonEncoder<ILoggingEvent> encoder;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int bufferSize = 16384;
+    int batchSize = 256;
+    AsyncJsonAppender.OverflowPolicy overflowPolicy = AsyncJsonAppender.OverflowPolicy.BLOCK;
+    int maxFlushTime = 1000;
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    public void setEncoder(JsonEncoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Threads encoding batches. Defaults to the number of processors.
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Number of ring buffer slots, rounded up to a power of 2. Includes events being encoded.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Most events encoded by one worker in one go, and written with one write call.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * One of block, drop.
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = AsyncJsonAppender.OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+    }
+
+    /**
+     * Milliseconds to wait on stop for queued events to be written.
+     */
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * @return events discarded because the ring buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return events that could not be encoded
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void start() {
+        if (null == file) {
+            addError("No file set for appender named [" + name + "].");
+            return;
+        }
+        if (null == encoder) {
+            encoder = new JsonEncoder<>();
+            encoder.setContext(context);
+            encoder.start();
+        }
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        if (batchSize <= 0) {
+            batchSize = 256;
+        }
+        if (encoder.hasFileState()) {
+            addWarn("[" + name + "] encodes out of file order, turning off the encoder's exceptionDedupInterval and "
+                    + "callSiteDictionary.");
+            encoder.disableFileState();
+        }
+
+        try {
+            File f = new File(file);
+            File parent = f.getAbsoluteFile().getParentFile();
+            if (null != parent && !parent.exists() && !parent.mkdirs()) {
+                addError("Failed to create parent directories for [" + f.getAbsolutePath() + "]");
+                return;
+            }
+            out = encoder.compress(new FileOutputStream(f, append));
+        } catch (IOException e) {
+            addError("Failed to open [" + file + "]", e);
+            return;
+        }
+
+        ring = new EventRingBuffer(bufferSize);
+        pool = new ForkJoinPool(workers);
+        running = true;
+        coordinator = new Thread(new Coordinator(), "ParallelJsonAppender-" + name);
+        coordinator.setDaemon(true);
+        coordinator.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+
+        running = false;
+        LockSupport.unpark(coordinator);
+        try {
+            coordinator.join(maxFlushTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (coordinator.isAlive()) {
+            // The coordinator shuts down the pool and closes the file itself once it gets through the rest.
+            addWarn("Timed out waiting for queued events to be written by [" + name + "].");
+        }
+        encoder.stop();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!encoder.sample(event)) {
+            return;
+        }
+        Integer lineNumber = encoder.lineNumbers ? encoder.lineNumberOf(event) : null;
+        while (!ring.tryPublish(event, lineNumber)) {
+            // Nobody would ever make room if the coordinator were gone.
+            if (overflowPolicy == AsyncJsonAppender.OverflowPolicy.DROP || !isStarted() || !coordinator.isAlive()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(SLEEP_NANOS);
+        }
+        if (coordinatorParked) {
+            LockSupport.unpark(coordinator);
+        }
+    }
+
+    /**
+     * A run of consecutive ring sequences, encoded by a worker into its own buffer.
+     */
+    private class Batch implements Runnable {
+
+        long first;
+        int count;
+        Utf8JsonWriter buffer = new Utf8JsonWriter(BUFFER_INITIAL_CAPACITY);
+        ForkJoinTask<?> task;
+
+        @Override
+        public void run() {
+            buffer.reset();
+            for (long sequence = first; sequence < first + count; sequence++) {
+                int mark = buffer.size();
+                ILoggingEvent event = ring.get(sequence);
+                try {
+                    encoder.writeEvent(event, buffer);
+                } catch (Throwable e) {
+                    // An Error, such as a StackOverflowError from an arg, would otherwise fail the whole batch.
+                    buffer.truncate(mark);
+                    failed.incrementAndGet();
+                    encoder.debug(e);
+                }
+            }
+        }
+    }
+
+    private class Coordinator implements Runnable {
+
+        /** Batches handed to the pool, oldest first. */
+        private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+        private final ArrayDeque<Batch> idle = new ArrayDeque<>();
+        private final int maxInFlight = workers * 2;
+
+        @Override
+        public void run() {
+            boolean dirty = false;
+            while (running || ring.hasUndispatched() || !inFlight.isEmpty()) {
+                boolean dispatched = false;
+                while (inFlight.size() < maxInFlight && dispatch()) {
+                    dispatched = true;
+                }
+
+                Batch head = inFlight.peek();
+                if (null != head && (head.task.isDone() || !dispatched)) {
+                    // Nothing new to hand out, so wait for the oldest batch to finish.
+                    try {
+                        head.task.join();
+                    } catch (Throwable e) {
+                        // Skip the batch rather than end the only thread that writes.
+                        head.buffer.reset();
+                        failed.addAndGet(head.count);
+                        addError("Failed to encode events for [" + name + "]", e);
+                    }
+                    dirty = write(inFlight.poll()) || dirty;
+                } else if (null == head) {
+                    if (dirty) {
+                        dirty = !flush();
+                    }
+                    idle();
+                }
+            }
+            flush();
+            // Done here rather than by stop, which may have given up waiting while this thread still writes.
+            pool.shutdown();
+            close();
+        }
+
+        private boolean dispatch() {
+            long first = ring.dispatched() + 1;
+            int count = ring.dispatch(batchSize);
+            if (count == 0) {
+                return false;
+            }
+            Batch batch = idle.poll();
+            if (null == batch) {
+                batch = new Batch();
+            }
+            batch.first = first;
+            batch.count = count;
+            batch.task = pool.submit(batch);
+            inFlight.add(batch);
+            return true;
+        }
+
+        private boolean write(Batch batch) {
+            boolean written;
+            try {
+                batch.buffer.writeTo(out);
+                written = true;
+            } catch (IOException e) {
+                addError("Failed to write to [" + file + "]", e);
+                written = false;
+            }
+            ring.release(batch.first + batch.count - 1);
+            batch.task = null;
+            if (batch.buffer.capacity() > MAX_RETAINED_CAPACITY) {
+                batch.buffer = new Utf8JsonWriter(BUFFER_INITIAL_CAPACITY);
+            }
+            idle.add(batch);
+            return written;
+        }
+
+        private boolean flush() {
+            try {
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                addError("Failed to flush [" + file + "]", e);
+                return false;
+            }
+        }
+
+        private void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                addError("Failed to close [" + file + "]", e);
+            }
+        }
+
+        private void idle() {
+            coordinatorParked = true;
+            if (running && !ring.hasUndispatched()) {
+                LockSupport.parkNanos(MAX_PARK_NANOS);
+            }
+            coordinatorParked = false;
+        }
+    }
+}
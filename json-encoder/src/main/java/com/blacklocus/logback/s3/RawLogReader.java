@@ -0,0 +1,119 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import com.blacklocus.logback.s3.avro.RawLog;
+import com.blacklocus.logback.s3.avro.RawLogV2;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads an Avro file written by {@link AvroEncoder} with either schema version, returning every record as a
+ * {@link RawLog}. {@link RawLogV2} records have their dictionary ids resolved and their timestamp written as the same
+ * ISO-8601 string schema version 1 has. Since the dictionary builds up over the file, files must be read from the
+ * start.
+ * <p>
+ * Also runnable, printing each record of the files given as arguments as a JSON line:
+ * <pre>
+ * java -cp json-encoder.jar:... com.blacklocus.logback.s3.RawLogReader blacklocus.avro
+ * </pre>
+ */
+public class RawLogReader implements Iterator<RawLog>, Closeable {
+
+    private final DataFileStream<Object> stream;
+    private final boolean compact;
+    private final List<String> dictionary = new ArrayList<>();
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter(TimestampFormatter.Format.ISO);
+
+    public RawLogReader(InputStream in) throws IOException {
+        stream = new DataFileStream<>(in, new SpecificDatumReader<>());
+        String schema = stream.getSchema().getFullName();
+        compact = RawLogV2.getClassSchema().getFullName().equals(schema);
+        if (!compact && !RawLog.getClassSchema().getFullName().equals(schema)) {
+            stream.close();
+            throw new IOException("Not a RawLog file, records are " + schema);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return stream.hasNext();
+    }
+
+    @Override
+    public RawLog next() {
+        Object record = stream.next();
+        return compact ? expand((RawLogV2) record) : (RawLog) record;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    RawLog expand(RawLogV2 record) {
+        if (record.getResetDictionary()) {
+            dictionary.clear();
+        }
+        for (CharSequence entry : record.getDictionary()) {
+            dictionary.add(entry.toString());
+        }
+
+        Map<CharSequence, CharSequence> context = new HashMap<>();
+        List<Integer> keys = record.getContextKeys();
+        List<CharSequence> values = record.getContextValues();
+        if (keys.size() != values.size()) {
+            throw new AvroRuntimeException(keys.size() + " context keys but " + values.size() + " values");
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            context.put(lookup(keys.get(i)), values.get(i));
+        }
+
+        return new RawLog(lookup(record.getLoggerName()), record.getLogLevel(),
+                timestampFormatter.format(record.getTimestamp()), record.getLineNumber(), record.getRendered(),
+                lookup(record.getFormat()), record.getArgs(), context);
+    }
+
+    private String lookup(int id) {
+        if (id < 0 || id >= dictionary.size()) {
+            throw new AvroRuntimeException("Dictionary id " + id + " was never defined, is this the start of the file?");
+        }
+        return dictionary.get(id);
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (String file : args) {
+            try (RawLogReader reader = new RawLogReader(new BufferedInputStream(new FileInputStream(file)))) {
+                while (reader.hasNext()) {
+                    System.out.println(reader.next());
+                }
+            }
+        }
+    }
+}
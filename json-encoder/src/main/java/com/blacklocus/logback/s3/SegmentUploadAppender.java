@@ -0,0 +1,594 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.LifeCycle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads JSON lines to an object store such as S3 as a series of objects, called segments here, through an
+ * {@link ObjectStoreClient}. Logging threads encode their events and append them to the current segment, compressed
+ * as the encoder is configured, so every segment is a complete file on its own. A segment is sealed once it reaches
+ * segmentSize bytes or maxSegmentAge millis, and queued for upload.
+ * <p>
+ * One uploader thread takes sealed segments in order and uploads each as a multipart upload of partSize parts, with up
+ * to uploadThreads parts in flight at once. Failed calls are retried with backoff. A segment that still fails to upload
+ * is aborted and its bytes are kept in bufferDirectory for someone to pick up.
+ * <p>
+ * Segments stay in memory up to memoryThreshold bytes, beyond which they continue in a temp file in bufferDirectory.
+ * Once maxPendingSegments sealed segments are waiting in memory, further ones are moved to disk as well, so a slow or
+ * unreachable store costs disk rather than heap.
+ * <p>
+ * Every segment is a file of its own, so exception dedup and the call site dictionary start over with each one. With
+ * either on, events are encoded under the segment lock rather than before taking it, so that first appearances are
+ * written first.
+ * <p>
+ * Keys are keyPrefix followed by the UTC time the segment was started and a sequence number, for instance
+ * logs/2015/06/01/12/120000.000-000042.json.gz. Put something unique per process, such as ${HOSTNAME}, in keyPrefix
+ * when several processes upload to the same place.
+ *
+ * <pre>
+ * &lt;appender name="s3" class="com.blacklocus.logback.s3.SegmentUploadAppender"&gt;
+ *   &lt;keyPrefix&gt;logs/${HOSTNAME}/&lt;/keyPrefix&gt;
+ *   &lt;segmentSize&gt;67108864&lt;/segmentSize&gt;
+ *   &lt;maxSegmentAge&gt;60000&lt;/maxSegmentAge&gt;
+ *   &lt;client class="com.blacklocus.logback.s3.LocalFileObjectStore"&gt;
+ *     &lt;directory&gt;/var/log/uploaded&lt;/directory&gt;
+ *   &lt;/client&gt;
+ *   &lt;encoder class="com.blacklocus.logback.s3.JsonEncoder"&gt;
+ *     &lt;compression&gt;gzip&lt;/compression&gt;
+ *   &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class SegmentUploadAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private static final int BUFFER_INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+    private static final long POLL_MILLIS = 100;
+
+    private final BufferPool<Utf8JsonWriter> writers = new BufferPool.Writers<Utf8JsonWriter>(MAX_RETAINED_CAPACITY) {
+        @Override
+        Utf8JsonWriter create() {
+            return new Utf8JsonWriter(BUFFER_INITIAL_CAPACITY);
+        }
+    };
+
+    private final Object lock = new Object();
+    private final BlockingQueue<UploadSegment> pending = new LinkedBlockingQueue<>();
+    private final AtomicInteger pendingInMemory = new AtomicInteger();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong failedUploads = new AtomicLong();
+
+    // Guarded by lock
+    private UploadSegment segment;
+    private OutputStream segmentOut;
+    private boolean accepting;
+    private long sequence;
+    private SimpleDateFormat keyFormat;
+
+    private File directory;
+    private String extension;
+    private boolean inFileOrder;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService partPool;
+    private Thread uploader;
+    private volatile boolean running;
+
+    // Configurable things
+
+    ObjectStoreClient client;
+    JsonEncoder<ILoggingEvent> encoder;
+    String keyPrefix = "";
+    long segmentSize = 64 * 1024 * 1024;
+    long maxSegmentAge = 60000;
+    int partSize = 8 * 1024 * 1024;
+    int uploadThreads = 4;
+    long memoryThreshold = 16 * 1024 * 1024;
+    int maxPendingSegments = 4;
+    String bufferDirectory = System.getProperty("java.io.tmpdir");
+    int maxRetries = 3;
+    int maxFlushTime = 30000;
+
+    public void setClient(ObjectStoreClient client) {
+        this.client = client;
+    }
+
+    public void setEncoder(JsonEncoder<ILoggingEvent> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Prepended to every key.
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * Bytes, after compression, at which a segment is sealed. Defaults to 64MB.
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Millis after which a segment is sealed even if not full. Defaults to a minute.
+     */
+    public void setMaxSegmentAge(long maxSegmentAge) {
+        this.maxSegmentAge = maxSegmentAge;
+    }
+
+    /**
+     * Bytes per uploaded part, except the last. S3 requires at least 5MB. Defaults to 8MB.
+     */
+    public void setPartSize(int partSize) {
+        this.partSize = partSize;
+    }
+
+    /**
+     * Most parts uploaded at once.
+     */
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * Bytes a segment may hold in memory before continuing on disk. Defaults to 16MB.
+     */
+    public void setMemoryThreshold(long memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Most sealed segments kept in memory while waiting for upload. Further ones wait on disk.
+     */
+    public void setMaxPendingSegments(int maxPendingSegments) {
+        this.maxPendingSegments = maxPendingSegments;
+    }
+
+    /**
+     * Where segments spill to disk, and where segments that failed to upload are kept. Defaults to java.io.tmpdir.
+     */
+    public void setBufferDirectory(String bufferDirectory) {
+        this.bufferDirectory = bufferDirectory;
+    }
+
+    /**
+     * Times a failed call to the client is retried.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Milliseconds to wait on stop for sealed segments to be uploaded.
+     */
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * @return events that could not be encoded or buffered
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return segments uploaded
+     */
+    public long getUploadedCount() {
+        return uploaded.get();
+    }
+
+    /**
+     * @return segments that could not be uploaded, and were kept in bufferDirectory
+     */
+    public long getFailedUploadCount() {
+        return failedUploads.get();
+    }
+
+    @Override
+    public void start() {
+        if (null == client) {
+            addError("No client set for appender named [" + name + "].");
+            return;
+        }
+        if (partSize <= 0 || uploadThreads <= 0) {
+            addError("partSize and uploadThreads must be positive for appender named [" + name + "].");
+            return;
+        }
+        if (null == encoder) {
+            encoder = new JsonEncoder<>();
+            encoder.setContext(context);
+            encoder.start();
+        }
+        directory = new File(bufferDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            addError("Failed to create bufferDirectory [" + directory.getAbsolutePath() + "]");
+            return;
+        }
+        extension = ".json" + encoder.compressionExtension();
+        inFileOrder = encoder.hasFileState();
+        keyFormat = new SimpleDateFormat("yyyy/MM/dd/HH/HHmmss.SSS");
+        keyFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        partPool = Executors.newFixedThreadPool(uploadThreads, daemonThreads("SegmentUploadAppender-" + name + "-part"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("SegmentUploadAppender-" + name + "-timer"));
+        long checkInterval = Math.max(10, Math.min(1000, maxSegmentAge / 2));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sealIfOlderThan(maxSegmentAge);
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+
+        synchronized (lock) {
+            accepting = true;
+        }
+        running = true;
+        uploader = new Thread(new Uploader(), "SegmentUploadAppender-" + name);
+        uploader.setDaemon(true);
+        uploader.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+
+        scheduler.shutdownNow();
+        UploadSegment last;
+        synchronized (lock) {
+            accepting = false;
+            last = takeSegment();
+        }
+        seal(last);
+        running = false;
+        try {
+            uploader.join(maxFlushTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (uploader.isAlive()) {
+            // Take the rest from the uploader, which is still busy with one, and move them to disk before giving up.
+            List<UploadSegment> left = new ArrayList<>();
+            pending.drainTo(left);
+            int lost = 0;
+            for (UploadSegment segment : left) {
+                if (null == segment.file()) {
+                    pendingInMemory.decrementAndGet();
+                    try {
+                        segment.spill();
+                    } catch (IOException e) {
+                        lost++;
+                        addError("Failed to move segment [" + segment.key + "] to disk, dropping it", e);
+                        segment.delete();
+                    }
+                }
+            }
+            addWarn("Timed out waiting for segments to be uploaded by [" + name + "]. " + (left.size() - lost)
+                    + " segments not uploaded are left in [" + directory.getAbsolutePath() + "], " + lost
+                    + " were lost.");
+        }
+        partPool.shutdown();
+        if (client instanceof LifeCycle) {
+            ((LifeCycle) client).stop();
+        }
+        encoder.stop();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!encoder.sample(event)) {
+            return;
+        }
+        Utf8JsonWriter buffer = writers.acquire();
+        UploadSegment sealed = null;
+        try {
+            buffer.reset();
+            if (!inFileOrder && !encode(event, buffer)) {
+                return;
+            }
+
+            synchronized (lock) {
+                if (!accepting) {
+                    failed.incrementAndGet();
+                    return;
+                }
+                try {
+                    if (null == segment) {
+                        long now = System.currentTimeMillis();
+                        String key = keyPrefix + keyFormat.format(new Date(now)) + String.format("-%06d", sequence++)
+                                + extension;
+                        segment = new UploadSegment(key, now, directory, memoryThreshold);
+                        segmentOut = encoder.compress(segment);
+                        encoder.resetFileState();
+                    }
+                    if (inFileOrder && !encode(event, buffer)) {
+                        return;
+                    }
+                    buffer.writeTo(segmentOut);
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    addError("Failed to buffer events for [" + name + "]", e);
+                }
+                if (null != segment && segment.size() >= segmentSize) {
+                    sealed = takeSegment();
+                }
+            }
+        } finally {
+            writers.release(buffer);
+        }
+        seal(sealed);
+    }
+
+    private boolean encode(ILoggingEvent event, Utf8JsonWriter buffer) {
+        try {
+            encoder.writeEvent(event, buffer);
+            return true;
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            encoder.debug(e);
+            return false;
+        }
+    }
+
+    private void sealIfOlderThan(long age) {
+        UploadSegment sealed = null;
+        synchronized (lock) {
+            if (null != segment && System.currentTimeMillis() - segment.created >= age) {
+                sealed = takeSegment();
+            }
+        }
+        seal(sealed);
+    }
+
+    /**
+     * Closes the current segment, finishing any compression, and makes room for a new one.
+     */
+    private UploadSegment takeSegment() {
+        UploadSegment taken = segment;
+        if (null != taken) {
+            try {
+                segmentOut.close();
+            } catch (IOException e) {
+                addError("Failed to finish segment [" + taken.key + "]", e);
+            }
+            segment = null;
+            segmentOut = null;
+        }
+        return taken;
+    }
+
+    private void seal(UploadSegment sealed) {
+        if (null == sealed) {
+            return;
+        }
+        if (null == sealed.file() && pendingInMemory.incrementAndGet() > maxPendingSegments) {
+            pendingInMemory.decrementAndGet();
+            try {
+                sealed.spill();
+            } catch (IOException e) {
+                addWarn("Failed to move segment [" + sealed.key + "] to disk, keeping it in memory", e);
+                pendingInMemory.incrementAndGet();
+            }
+        }
+        pending.add(sealed);
+    }
+
+    private void upload(final UploadSegment segment) {
+        long size = segment.size();
+        int parts = (int) Math.max(1, (size + partSize - 1) / partSize);
+        String uploadId = null;
+        List<Future<String>> futures = new ArrayList<>(parts);
+        AtomicBoolean abandoned = new AtomicBoolean();
+        try {
+            uploadId = retrying(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return client.startUpload(segment.key);
+                }
+            });
+            for (int i = 0; i < parts; i++) {
+                long offset = (long) i * partSize;
+                int length = (int) Math.min(partSize, size - offset);
+                futures.add(partPool.submit(new PartUpload(segment, uploadId, i + 1, offset, length, abandoned)));
+            }
+            final List<String> partTags = new ArrayList<>(parts);
+            for (Future<String> future : futures) {
+                partTags.add(future.get());
+            }
+            final String id = uploadId;
+            retrying(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    client.completeUpload(segment.key, id, partTags);
+                    return null;
+                }
+            });
+            uploaded.incrementAndGet();
+            if (null == segment.file()) {
+                pendingInMemory.decrementAndGet();
+            }
+            segment.delete();
+        } catch (Exception e) {
+            // Parts still in flight read from the segment, which keep is about to move to disk.
+            abandoned.set(true);
+            awaitParts(futures);
+            failedUploads.incrementAndGet();
+            abort(segment, uploadId);
+            keep(segment, e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * Waits for every part to finish, or to give up once it sees the upload abandoned. A cancelled future would report
+     * done while its part is still running.
+     */
+    private void awaitParts(List<Future<String>> futures) {
+        boolean interrupted = false;
+        for (Future<String> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void abort(UploadSegment segment, String uploadId) {
+        if (null == uploadId) {
+            return;
+        }
+        try {
+            client.abortUpload(segment.key, uploadId);
+        } catch (IOException e) {
+            addWarn("Failed to abort upload of [" + segment.key + "]", e);
+        }
+    }
+
+    private void keep(UploadSegment segment, Throwable cause) {
+        if (null == segment.file()) {
+            pendingInMemory.decrementAndGet();
+        }
+        try {
+            segment.spill();
+            addError("Failed to upload [" + segment.key + "], its bytes are kept in [" + segment.file() + "]", cause);
+        } catch (IOException e) {
+            addError("Failed to upload [" + segment.key + "] or keep it on disk, dropping it", cause);
+            segment.delete();
+        }
+    }
+
+    /**
+     * Calls call, retrying IOExceptions up to maxRetries times with exponential backoff.
+     */
+    private <T> T retrying(Callable<T> call) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.call();
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                encoder.debug(e);
+                Thread.sleep(RETRY_BACKOFF_MILLIS << Math.min(attempt, 10));
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private class PartUpload implements Callable<String> {
+
+        private final UploadSegment segment;
+        private final String uploadId;
+        private final int partNumber;
+        private final long offset;
+        private final int length;
+        private final AtomicBoolean abandoned;
+
+        PartUpload(UploadSegment segment, String uploadId, int partNumber, long offset, int length,
+                AtomicBoolean abandoned) {
+            this.segment = segment;
+            this.uploadId = uploadId;
+            this.partNumber = partNumber;
+            this.offset = offset;
+            this.length = length;
+            this.abandoned = abandoned;
+        }
+
+        @Override
+        public String call() throws Exception {
+            return retrying(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    if (abandoned.get()) {
+                        throw new CancellationException("Upload of [" + segment.key + "] was abandoned");
+                    }
+                    try (InputStream data = segment.open(offset, length)) {
+                        return client.uploadPart(segment.key, uploadId, partNumber, data, length);
+                    }
+                }
+            });
+        }
+    }
+
+    private class Uploader implements Runnable {
+
+        @Override
+        public void run() {
+            while (running || !pending.isEmpty()) {
+                UploadSegment next;
+                try {
+                    next = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (null != next) {
+                    upload(next);
+                }
+            }
+        }
+    }
+}
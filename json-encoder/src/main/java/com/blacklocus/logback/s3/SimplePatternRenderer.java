@@ -0,0 +1,106 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Renders the common pattern {@value #PATTERN} straight into a JSON string value, producing exactly what PatternLayout
+ * would, without building the intermediate String. Events with a throwable are not supported, since PatternLayout
+ * appends their stack trace.
+ */
+class SimplePatternRenderer {
+
+    static final String PATTERN = "%d [%thread] %-5level %logger - %msg%n";
+
+    private static final String MESSAGE_SEPARATOR = " - ";
+
+    private volatile Second cached;
+
+    /**
+     * @return whether this renders the pattern exactly as PatternLayout would
+     */
+    static boolean supports(String pattern) {
+        // Millis are written as ASCII digits, which a locale with other digits wouldn't produce.
+        return PATTERN.equals(pattern.trim()) && newDateFormat().format(new Date(0)).endsWith("000");
+    }
+
+    void write(ILoggingEvent e, JsonWriter out) {
+        out.raw('"');
+
+        long second = e.getTimeStamp() / 1000;
+        int millis = (int) (e.getTimeStamp() - second * 1000);
+        if (millis < 0) {
+            second--;
+            millis += 1000;
+        }
+        out.raw(prefix(second));
+        out.raw((char) ('0' + millis / 100)).raw((char) ('0' + millis / 10 % 10)).raw((char) ('0' + millis % 10));
+
+        out.raw(" [");
+        escaped(e.getThreadName(), out);
+        out.raw("] ");
+        String level = e.getLevel().toString();
+        out.raw(level);
+        for (int i = level.length(); i < 5; i++) {
+            out.raw(' ');
+        }
+        out.raw(' ');
+        escaped(e.getLoggerName(), out);
+        out.raw(MESSAGE_SEPARATOR);
+        escaped(e.getFormattedMessage(), out);
+        escaped(CoreConstants.LINE_SEPARATOR, out);
+
+        out.raw('"');
+    }
+
+    private static void escaped(String s, JsonWriter out) {
+        // StringBuilder.append(null), which is what PatternLayout ends up doing.
+        String value = null == s ? "null" : s;
+        out.escaped(value, value.length());
+    }
+
+    /**
+     * @return the formatted date up to and including the comma before the millis, cached for the current second
+     */
+    private String prefix(long second) {
+        Second cached = this.cached;
+        if (null == cached || cached.second != second) {
+            String formatted = newDateFormat().format(new Date(second * 1000));
+            cached = new Second(second, formatted.substring(0, formatted.length() - 3));
+            this.cached = cached;
+        }
+        return cached.prefix;
+    }
+
+    /**
+     * What %d formats with when given no date pattern, in the default time zone and locale as PatternLayout does.
+     */
+    private static SimpleDateFormat newDateFormat() {
+        return new SimpleDateFormat(CoreConstants.ISO8601_PATTERN);
+    }
+
+    private static final class Second {
+
+        final long second;
+        final String prefix;
+
+        Second(long second, String prefix) {
+            this.second = second;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Formats event timestamps for the logDateTime field. ISO-8601 output caches the rendered date, hour and minute and
+ * only renders seconds and fractions per event, since events in a burst nearly always share the same minute.
+ * <p>
+ * Safe for concurrent use; the cached minute is an immutable holder swapped in as needed.
+ */
+class TimestampFormatter {
+
+    enum Format {
+        /** e.g. 2015-05-12T14:41:17.171Z, which is what Joda's DateTime.toString() produces in UTC */
+        ISO,
+        /** e.g. 2015-05-12T14:41:17.171000Z. Logback timestamps only have millisecond resolution. */
+        ISO_MICROS,
+        /** e.g. 1431441677171, as a JSON string so the field keeps its schema type */
+        EPOCH_MILLIS;
+
+        static Format parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    /** Years Joda would render with a sign or more than four digits are left to Joda. */
+    private static final long MIN_FAST_MILLIS = -62167219200000L; // 0000-01-01T00:00:00Z
+    private static final long MAX_FAST_MILLIS = 253402300800000L; // 10000-01-01T00:00:00Z
+
+    private final Format format;
+    private volatile Minute cached;
+
+    TimestampFormatter(Format format) {
+        this.format = format;
+    }
+
+    Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Writes the timestamp as a quoted JSON string.
+     */
+    void write(long millis, JsonWriter out) {
+        out.raw('"');
+        if (format == Format.EPOCH_MILLIS) {
+            out.number(millis);
+        } else if (millis < MIN_FAST_MILLIS || millis >= MAX_FAST_MILLIS) {
+            String iso = new DateTime(millis).withZone(DateTimeZone.UTC).toString();
+            out.raw(format == Format.ISO ? iso : iso.replace("Z", "000Z"));
+        } else {
+            Minute minute = cached;
+            if (null == minute || millis < minute.start || millis >= minute.start + MILLIS_PER_MINUTE) {
+                minute = new Minute(millis);
+                cached = minute;
+            }
+            out.raw(minute.prefix);
+            int millisOfMinute = (int) (millis - minute.start);
+            int seconds = millisOfMinute / 1000;
+            int fraction = millisOfMinute % 1000;
+            out.raw((char) ('0' + seconds / 10)).raw((char) ('0' + seconds % 10)).raw('.');
+            out.raw((char) ('0' + fraction / 100)).raw((char) ('0' + fraction / 10 % 10)).raw((char) ('0' + fraction % 10));
+            if (format == Format.ISO_MICROS) {
+                out.raw("000");
+            }
+            out.raw('Z');
+        }
+        out.raw('"');
+    }
+
+    /**
+     * @return the timestamp as it would be written, without quotes
+     */
+    String format(long millis) {
+        CharJsonWriter out = new CharJsonWriter(32);
+        write(millis, out);
+        return out.subSequence(1, out.length() - 1).toString();
+    }
+
+    /**
+     * The rendered "yyyy-MM-ddTHH:mm:" for one UTC minute.
+     */
+    private static class Minute {
+        final long start;
+        final String prefix;
+
+        Minute(long millis) {
+            this.start = millis - floorMod(millis, MILLIS_PER_MINUTE);
+
+            long days = (start - floorMod(start, MILLIS_PER_DAY)) / MILLIS_PER_DAY;
+            int minuteOfDay = (int) (floorMod(start, MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+
+            // Civil date from days since epoch, http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+            long z = days + 719468;
+            long era = (z >= 0 ? z : z - 146096) / 146097;
+            long dayOfEra = z - era * 146097;
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long mp = (5 * dayOfYear + 2) / 153;
+            int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+            int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+            char[] p = new char[17];
+            p[0] = (char) ('0' + year / 1000);
+            p[1] = (char) ('0' + year / 100 % 10);
+            p[2] = (char) ('0' + year / 10 % 10);
+            p[3] = (char) ('0' + year % 10);
+            p[4] = '-';
+            p[5] = (char) ('0' + month / 10);
+            p[6] = (char) ('0' + month % 10);
+            p[7] = '-';
+            p[8] = (char) ('0' + day / 10);
+            p[9] = (char) ('0' + day % 10);
+            p[10] = 'T';
+            p[11] = (char) ('0' + minuteOfDay / 60 / 10);
+            p[12] = (char) ('0' + minuteOfDay / 60 % 10);
+            p[13] = ':';
+            p[14] = (char) ('0' + minuteOfDay % 60 / 10);
+            p[15] = (char) ('0' + minuteOfDay % 60 % 10);
+            p[16] = ':';
+            this.prefix = new String(p);
+        }
+
+        private static long floorMod(long x, long y) {
+            long mod = x % y;
+            return mod < 0 ? mod + y : mod;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Encoded bytes of one object on its way to an {@link ObjectStoreClient}. Kept in memory until they outgrow the memory
+ * threshold or {@link #spill} is called, then in a temp file. Written by one thread at a time until {@link #close},
+ * after which parts may be read concurrently.
+ */
+class UploadSegment extends OutputStream {
+
+    /** A ByteArrayOutputStream that lets parts be read without copying. */
+    private static class Memory extends ByteArrayOutputStream {
+        Memory(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    final String key;
+    final long created;
+
+    private final File directory;
+    private final long memoryThreshold;
+    private Memory memory;
+    private File file;
+    private OutputStream fileOut;
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param directory       where to create the temp file when spilling
+     * @param memoryThreshold most bytes kept in memory
+     */
+    UploadSegment(String key, long created, File directory, long memoryThreshold) {
+        this.key = key;
+        this.created = created;
+        this.directory = directory;
+        this.memoryThreshold = memoryThreshold;
+        this.memory = new Memory((int) Math.min(memoryThreshold, 64 * 1024));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (null != memory && size + len > memoryThreshold) {
+            spill();
+        }
+        if (null != memory) {
+            memory.write(b, off, len);
+        } else {
+            fileOut.write(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Moves whatever is in memory to a temp file. Subsequent writes go to the file.
+     */
+    void spill() throws IOException {
+        if (null == memory) {
+            return;
+        }
+        file = File.createTempFile("segment-", ".tmp", directory);
+        fileOut = new FileOutputStream(file);
+        memory.writeTo(fileOut);
+        memory = null;
+        if (closed) {
+            fileOut.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (null != fileOut) {
+            fileOut.close();
+        }
+    }
+
+    /**
+     * @return bytes written
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the temp file holding the bytes, or null if they're in memory
+     */
+    File file() {
+        return file;
+    }
+
+    /**
+     * @return a stream over length bytes starting at offset. Parts of spilled segments are read into memory whole.
+     */
+    InputStream open(long offset, int length) throws IOException {
+        if (null != memory) {
+            return new ByteArrayInputStream(memory.array(), (int) offset, length);
+        }
+        byte[] part = new byte[length];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(offset);
+            in.readFully(part);
+        }
+        return new ByteArrayInputStream(part);
+    }
+
+    /**
+     * Releases the bytes, deleting the temp file if any.
+     */
+    boolean delete() {
+        memory = null;
+        return null == file || file.delete();
+    }
+}
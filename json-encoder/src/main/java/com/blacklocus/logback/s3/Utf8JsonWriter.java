@@ -0,0 +1,207 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link JsonWriter} that encodes straight to UTF-8 into a growable byte buffer, so that no intermediate String or
+ * charset encoder is involved between the event and the OutputStream.
+ */
+class Utf8JsonWriter extends JsonWriter {
+
+    private byte[] buf;
+    private int len = 0;
+
+    Utf8JsonWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    @Override
+    public JsonWriter raw(char c) {
+        if (c < 0x80) {
+            ensure(1);
+            buf[len++] = (byte) c;
+        } else {
+            encode(c, '\0');
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (len == buf.length || len == limit) {
+                    ensure(1);
+                }
+                buf[len++] = (byte) c;
+            } else {
+                i += encode(c, i + 1 < n ? s.charAt(i + 1) : '\0');
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(char[] chars, int offset, int length) {
+        ensure(length);
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                if (len == buf.length || len == limit) {
+                    ensure(1);
+                }
+                buf[len++] = (byte) c;
+            } else {
+                i += encode(c, i + 1 < end ? chars[i + 1] : '\0');
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(JsonFragment fragment) {
+        byte[] bytes = fragment.utf8;
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+        return this;
+    }
+
+    @Override
+    JsonWriter escaped(CharSequence s, int n) {
+        // Optimistically assume ASCII with nothing to escape. ensure() is called again otherwise.
+        reserve(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (needsEscape(c)) {
+                escape(c);
+            } else if (c < 0x80) {
+                if (len == buf.length || len == limit) {
+                    ensure(1);
+                }
+                buf[len++] = (byte) c;
+            } else {
+                i += encode(c, i + 1 < n ? s.charAt(i + 1) : '\0');
+            }
+        }
+        return this;
+    }
+
+    @Override
+    void reset() {
+        len = 0;
+    }
+
+    @Override
+    void truncate(int size) {
+        len = size;
+    }
+
+    @Override
+    int size() {
+        return len;
+    }
+
+    @Override
+    int capacity() {
+        return buf.length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+    }
+
+    /**
+     * Copies length bytes starting at offset into dst at its position.
+     */
+    void writeTo(int offset, int length, ByteBuffer dst) {
+        dst.put(buf, offset, length);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    /**
+     * Encodes a non-ASCII char, consuming the following char too if the two form a surrogate pair. Unpaired surrogates
+     * become '?', same as the JDK's encoder does.
+     *
+     * @return number of additional chars consumed, 0 or 1
+     */
+    private int encode(char c, char next) {
+        if (c < 0x800) {
+            ensure(2);
+            buf[len++] = (byte) (0xC0 | (c >> 6));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        } else if (!Character.isSurrogate(c)) {
+            ensure(3);
+            buf[len++] = (byte) (0xE0 | (c >> 12));
+            buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            ensure(4);
+            int cp = Character.toCodePoint(c, next);
+            buf[len++] = (byte) (0xF0 | (cp >> 18));
+            buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            return 1;
+        } else {
+            ensure(1);
+            buf[len++] = '?';
+        }
+        return 0;
+    }
+
+    private void escape(char c) {
+        if (c < 0xA0) {
+            char[] escape = ESCAPES[c];
+            ensure(escape.length);
+            for (char e : escape) {
+                buf[len++] = (byte) e;
+            }
+        } else {
+            ensure(6);
+            buf[len++] = '\\';
+            buf[len++] = 'u';
+            buf[len++] = (byte) HEX[(c >> 12) & 0xF];
+            buf[len++] = (byte) HEX[(c >> 8) & 0xF];
+            buf[len++] = (byte) HEX[(c >> 4) & 0xF];
+            buf[len++] = (byte) HEX[c & 0xF];
+        }
+    }
+
+    /**
+     * Makes room for up to n more without holding them against the limit, for writes that check it as they go.
+     */
+    private void reserve(int n) {
+        ensure(Math.min(n, limit - len));
+    }
+
+    private void ensure(int more) {
+        if (len + more > limit) {
+            throw LimitExceededException.INSTANCE;
+        }
+        if (len + more > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + more));
+        }
+    }
+}
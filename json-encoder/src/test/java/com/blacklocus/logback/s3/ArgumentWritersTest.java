@@ -0,0 +1,142 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArgumentWritersTest {
+
+    enum Color {
+        RED,
+        GREEN {
+            @Override
+            public String toString() {
+                return "green!";
+            }
+        }
+    }
+
+    public static class Bean {
+        public String getName() {
+            return "bean";
+        }
+
+        public int[] getNumbers() {
+            return new int[]{1, 2};
+        }
+    }
+
+    public static class BigBean {
+        public String getText() {
+            char[] text = new char[100000];
+            Arrays.fill(text, 'x');
+            return new String(text);
+        }
+    }
+
+    ObjectMapper mapper = new ObjectMapper();
+    ArgumentWriters writers = new ArgumentWriters();
+
+    @Test
+    public void matchesJackson() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        map.put(2, Arrays.asList(null, "x\"y"));
+        map.put(Color.GREEN, Collections.singletonMap("nested", Color.RED));
+
+        Object[] args = {5, -7L, (short) 3, (byte) 1, 1.5d, 0.1f, Double.NaN, Float.NEGATIVE_INFINITY,
+                new BigDecimal("1.10"), new BigInteger("123456789012345678901234567890"), true, 'c', Color.RED,
+                Color.GREEN, UUID.randomUUID(), new StringBuilder("sb\n"), Arrays.asList("reason 1", "reason 2"),
+                new TreeSet<>(Arrays.asList(3, 1, 2)), map, Collections.singletonMap(new Date(0), "epoch"),
+                new Bean(), new int[]{4, 5}, new Object[]{"o", 1}, Collections.emptyList()};
+        for (Object arg : args) {
+            assertEquals(mapper.writeValueAsString(arg), write(arg));
+        }
+    }
+
+    @Test
+    public void escapesStringsLikeJackson() throws Exception {
+        String odd = "\u0001 \u007F \u0085 \u20AC \u2014 \u201C\u201D \u2026 \u2028 / \"\\ \t";
+        Object[] args = {Arrays.asList(odd), Collections.singletonMap(odd, odd), new StringBuilder(odd)};
+        for (Object arg : args) {
+            assertEquals(mapper.writeValueAsString(arg), write(arg));
+            Utf8JsonWriter utf8 = new Utf8JsonWriter(16);
+            writers.write(arg, utf8);
+            assertEquals(mapper.writeValueAsString(arg), new String(utf8.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        // Escaping of the event around the argument is unchanged.
+        CharJsonWriter out = new CharJsonWriter(16);
+        out.string("\u2028");
+        writers.write(Arrays.asList("\u2028"), out);
+        assertEquals("\"\\u2028\"[\"\u2028\"]", out.toString());
+    }
+
+    @Test
+    public void customWriterWinsForSubtypes() throws Exception {
+        writers.register(CharSequence.class, new ArgumentWriter() {
+            @Override
+            public void write(Object arg, JsonWriter out, ArgumentWriters writers) throws IOException {
+                out.number(((CharSequence) arg).length());
+            }
+        });
+        assertEquals("3", write(new StringBuilder("abc")));
+        assertEquals("[2]", write(Collections.singletonList(new StringBuilder("ab"))));
+    }
+
+    @Test
+    public void boundsElementsDepthAndSize() throws Exception {
+        writers.limit(20, 2, 2);
+        CharJsonWriter json = new CharJsonWriter(16);
+
+        assertFalse(writers.writeBounded(Arrays.asList(1, 2, 3), json));
+        assertEquals("[1,2,\"...\"]", json.toString());
+        assertFalse(writers.writeBounded(Collections.singletonMap("a", Collections.singletonMap("b", 1)), json));
+        assertEquals("{\"a\":{\"b\":\"...\"}}", json.toString());
+
+        assertTrue(writers.writeBounded(Arrays.asList("0123456789", "0123456789"), json));
+        assertTrue(json.toString(), json.length() <= 20);
+        assertTrue(json.toString(), json.toString().startsWith("[\"0123456789\""));
+
+        // Through Jackson, which buffers, so less than the limit may be kept.
+        assertTrue(writers.writeBounded(new BigBean(), json));
+        assertTrue(json.length() <= 20);
+
+        // Limits don't stick to the writer.
+        writers.limit(0, 0, 0);
+        assertFalse(writers.writeBounded(new BigBean(), json));
+        assertEquals(mapper.writeValueAsString(new BigBean()), json.toString());
+    }
+
+    String write(Object arg) throws IOException {
+        CharJsonWriter out = new CharJsonWriter(16);
+        writers.write(arg, out);
+        return out.toString();
+    }
+}
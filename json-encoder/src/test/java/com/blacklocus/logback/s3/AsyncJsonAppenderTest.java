@@ -0,0 +1,118 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncJsonAppenderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void writesEverythingInPerThreadOrder() throws Exception {
+        File file = tmp.newFile();
+        final AsyncJsonAppender appender = newAppender(file, "block", 16);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        appender.doAppend(events.event("t" + id + " " + i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4000, lines.size());
+        int[] next = new int[threads.length];
+        for (String line : lines) {
+            int start = line.indexOf("\"format\": \"t") + 12;
+            String[] parts = line.substring(start, line.indexOf('"', start)).split(" ");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+        }
+        assertEquals(0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void countsDrops() throws Exception {
+        File file = tmp.newFile();
+        AsyncJsonAppender appender = newAppender(file, "drop", 2);
+        for (int i = 0; i < 10000; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(10000, lines.size() + appender.getDroppedCount());
+        assertTrue(lines.size() > 0);
+    }
+
+    @Test
+    public void survivesErrorsFromArgs() throws Exception {
+        File file = tmp.newFile();
+        AsyncJsonAppender appender = newAppender(file, "block", 2);
+        appender.doAppend(new LoggingEvent(AsyncJsonAppenderTest.class.getName(),
+                loggerContext.getLogger("com.blacklocus.Test"), Level.INFO, "deep {}", null, new Object[]{new Object() {
+                    @Override
+                    public String toString() {
+                        throw new StackOverflowError();
+                    }
+                }}));
+        for (int i = 0; i < 100; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        appender.stop();
+
+        assertEquals(100, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        assertEquals(1, appender.getFailedCount());
+    }
+
+    AsyncJsonAppender newAppender(File file, String overflowPolicy, int bufferSize) {
+        AsyncJsonAppender appender = new AsyncJsonAppender();
+        appender.setContext(loggerContext);
+        appender.setName("test");
+        appender.setFile(file.getAbsolutePath());
+        appender.setAppend(false);
+        appender.setOverflowPolicy(overflowPolicy);
+        appender.setBufferSize(bufferSize);
+        appender.setMaxFlushTime(10000);
+        appender.start();
+        return appender;
+    }
+}
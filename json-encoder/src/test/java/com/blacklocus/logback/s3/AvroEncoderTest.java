@@ -0,0 +1,280 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.status.Status;
+import com.blacklocus.logback.s3.avro.LogLevel;
+import com.blacklocus.logback.s3.avro.RawLog;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AvroEncoderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void roundTrips() throws Exception {
+        for (String codec : Arrays.asList("null", "deflate", "deflate-9", "snappy")) {
+            AvroEncoder<ILoggingEvent> encoder = new AvroEncoder<>();
+            encoder.setContext(loggerContext);
+            encoder.setCodec(codec);
+            encoder.setSyncInterval(64);
+            encoder.start();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            encoder.init(bytes);
+            for (int i = 0; i < 100; i++) {
+                encoder.doEncode(events.event(Level.WARN, "event {} {}", null, i, Arrays.asList("a", "b")));
+            }
+            encoder.close();
+
+            List<RawLog> logs = read(bytes.toByteArray());
+            assertEquals(codec, 100, logs.size());
+            RawLog last = logs.get(99);
+            assertEquals("com.blacklocus.Test", last.getLoggerName().toString());
+            assertEquals(LogLevel.WARN, last.getLogLevel());
+            assertEquals("event {} {}", last.getFormat().toString());
+            assertEquals("99", last.getArgs().get(0).toString());
+            assertEquals("[\"a\",\"b\"]", last.getArgs().get(1).toString());
+        }
+    }
+
+    @Test
+    public void eachInitStartsANewContainer() throws Exception {
+        AvroEncoder<ILoggingEvent> encoder = new AvroEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.start();
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        encoder.init(first);
+        encoder.doEncode(events.event(Level.INFO, "one", null));
+        encoder.close();
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        encoder.init(second);
+        encoder.doEncode(events.event(Level.INFO, "two", null));
+        encoder.close();
+
+        assertEquals("one", read(first.toByteArray()).get(0).getFormat().toString());
+        assertEquals("two", read(second.toByteArray()).get(0).getFormat().toString());
+    }
+
+    @Test
+    public void appendsToAnExistingFile() throws Exception {
+        File file = tmp.newFile();
+        for (int run = 0; run < 2; run++) {
+            FileAppender<ILoggingEvent> appender = newAppender(file, 2);
+            for (int i = 0; i < 3; i++) {
+                appender.doAppend(events.event(Level.INFO, "run " + run + " {}", null, i));
+            }
+            appender.stop();
+        }
+
+        List<String> logs = readAll(Files.readAllBytes(file.toPath()));
+        assertEquals(6, logs.size());
+        assertTrue(logs.get(0), logs.get(0).contains("\"format\": \"run 0 {}\""));
+        assertTrue(logs.get(5), logs.get(5).contains("\"format\": \"run 1 {}\""));
+
+        // Another schema can't go into the same container.
+        FileAppender<ILoggingEvent> other = newAppender(file, 1);
+        other.doAppend(events.event(Level.INFO, "other", null));
+        other.stop();
+        boolean refused = false;
+        for (Status status : loggerContext.getStatusManager().getCopyOfStatusList()) {
+            refused |= status.getLevel() == Status.ERROR && status.getMessage().contains("initialize encoder");
+        }
+        assertTrue(refused);
+        assertEquals(6, readAll(Files.readAllBytes(file.toPath())).size());
+    }
+
+    @Test
+    public void reusedRecordsDontLeakFields() throws Exception {
+        AvroEncoder<ILoggingEvent> encoder = new AvroEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.init(bytes);
+
+        LoggingEvent full = events.event(Level.INFO, "full {}", null, 1);
+        full.getMDCPropertyMap().put("Tenant", "acme");
+        encoder.doEncode(full);
+        encoder.doEncode(events.event(Level.INFO, null, null));
+        encoder.doEncode(events.event(Level.DEBUG, "empty", null));
+        encoder.close();
+
+        List<RawLog> logs = read(bytes.toByteArray());
+        assertEquals(2, logs.size());
+        assertEquals(Arrays.asList("1"), strings(logs.get(0).getArgs()));
+        assertEquals(1, logs.get(0).getContext().size());
+        assertEquals("empty", logs.get(1).getFormat().toString());
+        assertEquals(0, logs.get(1).getArgs().size());
+        assertEquals(0, logs.get(1).getContext().size());
+    }
+
+    @Test
+    public void skipsNullContextValues() throws Exception {
+        LoggingEvent e = events.event(Level.INFO, "mdc", null);
+        e.getMDCPropertyMap().put("Tenant", "acme");
+        e.getMDCPropertyMap().put("User", null);
+        for (int schemaVersion : new int[]{1, 2}) {
+            List<String> logs = readAll(encode(schemaVersion, 0, Arrays.asList(e)));
+            assertEquals(1, logs.size());
+            assertTrue(logs.get(0), logs.get(0).contains("\"context\": {\"Tenant\": \"acme\"}"));
+        }
+    }
+
+    @Test
+    public void concurrentEncoding() throws Exception {
+        final AvroEncoder<ILoggingEvent> encoder = new AvroEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.init(bytes);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final String thread = "t" + t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        try {
+                            encoder.doEncode(events.event(Level.INFO, thread, null, thread, Arrays.asList(thread, i)));
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        encoder.close();
+
+        List<RawLog> logs = read(bytes.toByteArray());
+        assertEquals(2000, logs.size());
+        for (RawLog log : logs) {
+            String thread = log.getFormat().toString();
+            assertEquals(thread, log.getArgs().get(0).toString());
+            assertTrue(log.getArgs().get(1).toString().startsWith("[\"" + thread + "\","));
+        }
+    }
+
+    @Test
+    public void compactSchemaExpandsToRawLog() throws Exception {
+        List<LoggingEvent> logged = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Level level = i % 3 == 0 ? Level.ERROR : Level.INFO;
+            LoggingEvent e = events.event(level, "format " + (i % 5) + " {} {}", null, i, null);
+            e.setTimeStamp(1431441677171L + i);
+            e.getMDCPropertyMap().put("Key" + (i % 7), "value " + i);
+            logged.add(e);
+        }
+
+        byte[] v1 = encode(1, 0, logged);
+        byte[] v2 = encode(2, 0, logged);
+        // Small enough to start over every few records.
+        byte[] reset = encode(2, 4, logged);
+        assertTrue(v2.length + " vs " + v1.length, v2.length < v1.length * 2 / 3);
+
+        List<String> expected = readAll(v1);
+        assertEquals(200, expected.size());
+        assertEquals(expected, readAll(v2));
+        assertEquals(expected, readAll(reset));
+    }
+
+    byte[] encode(int schemaVersion, int maxDictionarySize, List<LoggingEvent> events) throws Exception {
+        AvroEncoder<ILoggingEvent> encoder = new AvroEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setSchemaVersion(schemaVersion);
+        encoder.setMaxDictionarySize(maxDictionarySize);
+        encoder.setSyncInterval(256);
+        encoder.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.init(bytes);
+        for (LoggingEvent e : events) {
+            encoder.doEncode(e);
+        }
+        encoder.close();
+        return bytes.toByteArray();
+    }
+
+    FileAppender<ILoggingEvent> newAppender(File file, int schemaVersion) {
+        AvroEncoder<ILoggingEvent> encoder = new AvroEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setSchemaVersion(schemaVersion);
+        encoder.start();
+
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(loggerContext);
+        appender.setFile(file.getPath());
+        appender.setEncoder(encoder);
+        appender.start();
+        return appender;
+    }
+
+    static List<String> readAll(byte[] bytes) throws Exception {
+        List<String> logs = new ArrayList<>();
+        try (RawLogReader reader = new RawLogReader(new ByteArrayInputStream(bytes))) {
+            while (reader.hasNext()) {
+                logs.add(reader.next().toString());
+            }
+        }
+        return logs;
+    }
+
+    static List<String> strings(List<CharSequence> values) {
+        List<String> strings = new ArrayList<>();
+        for (CharSequence value : values) {
+            strings.add(null == value ? null : value.toString());
+        }
+        return strings;
+    }
+
+    List<RawLog> read(byte[] bytes) throws Exception {
+        List<RawLog> logs = new ArrayList<>();
+        try (DataFileStream<RawLog> stream = new DataFileStream<>(new ByteArrayInputStream(bytes),
+                new SpecificDatumReader<>(RawLog.class))) {
+            for (RawLog log : stream) {
+                logs.add(log);
+            }
+        }
+        return logs;
+    }
+}
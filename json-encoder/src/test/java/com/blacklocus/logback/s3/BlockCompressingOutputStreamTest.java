@@ -0,0 +1,202 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCompressingOutputStreamTest {
+
+    @Test
+    public void encoderWritesGzipMembers() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        String expected = encode("gzip", file);
+        assertTrue(countMembers(file.toByteArray()) > 1);
+        assertEquals(expected, new String(readAll(new GZIPInputStream(new ByteArrayInputStream(file.toByteArray()))),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encoderWritesLz4Frames() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        String expected = encode("lz4", file);
+        byte[] bytes = file.toByteArray();
+        assertArrayEquals(new byte[]{0x04, 0x22, 0x4D, 0x18, 0x60, 0x40, (byte) 0x82}, Arrays.copyOf(bytes, 7));
+        assertEquals(expected, new String(decodeLz4Frames(bytes), StandardCharsets.UTF_8));
+        assertTrue(bytes.length < expected.length() / 2);
+    }
+
+    @Test
+    public void lz4RoundTrips() throws Exception {
+        Random random = new Random(42);
+        for (int size : new int[]{1, 12, 13, 100, 1000, 65536, 300000}) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                // Runs of random bytes, repeats of earlier content and long runs of one byte.
+                int mode = (i / 500) % 3;
+                data[i] = mode == 0 ? (byte) random.nextInt() : mode == 1 && i > 700 ? data[i - 700] : (byte) 'x';
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BlockCompressingOutputStream out = new Lz4BlockOutputStream(bytes, 64 * 1024, 1000);
+            out.write(data, 0, size);
+            out.close();
+            assertArrayEquals("size " + size, data, decodeLz4Frames(bytes.toByteArray()));
+        }
+    }
+
+    @Test
+    public void flushWritesBlockOnlyAfterInterval() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlockCompressingOutputStream out = new GzipBlockOutputStream(bytes, 1024, 60000);
+        out.write(new byte[]{'a', 'b'}, 0, 2);
+        out.flush();
+        assertEquals(0, bytes.size());
+        out.finish();
+        assertEquals(1, countMembers(bytes.toByteArray()));
+
+        bytes.reset();
+        out = new GzipBlockOutputStream(bytes, 1024, 0);
+        out.write(new byte[]{'a', 'b'}, 0, 2);
+        out.flush();
+        assertEquals(1, countMembers(bytes.toByteArray()));
+    }
+
+    /**
+     * @return what the same events encode to uncompressed
+     */
+    static String encode(String compression, ByteArrayOutputStream file) throws IOException {
+        LoggerContext loggerContext = new LoggerContext();
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCompression(compression);
+        encoder.setCompressionBlockSize(4096);
+        encoder.start();
+        encoder.init(file);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            LoggingEvent e = new LoggingEvent(BlockCompressingOutputStreamTest.class.getName(),
+                    loggerContext.getLogger("com.blacklocus.Test"), Level.INFO, "event {} of {}", null, new Object[]{i, 200});
+            e.setMDCPropertyMap(Collections.<String, String>emptyMap());
+            expected.append(encoder._doLayout(e));
+            encoder.doEncode(e);
+        }
+        encoder.close();
+        return expected.toString();
+    }
+
+    static int countMembers(byte[] gzip) {
+        int members = 0;
+        for (int i = 0; i + 2 < gzip.length; i++) {
+            if (gzip[i] == 0x1f && gzip[i + 1] == (byte) 0x8b && gzip[i + 2] == 8) {
+                members++;
+            }
+        }
+        return members;
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0; ) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A straightforward reading of the LZ4 frame and block format specs, to check the compressor against.
+     */
+    static byte[] decodeLz4Frames(byte[] in) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < in.length) {
+            assertEquals(0x184D2204, readIntLE(in, i));
+            assertEquals(0x60, in[i + 4] & 0xFF);
+            assertEquals((byte) (Lz4BlockOutputStream.xxh32(in, i + 4, 2) >>> 8), in[i + 6]);
+            i += 7;
+            for (int size; (size = readIntLE(in, i)) != 0; ) {
+                i += 4;
+                if (size < 0) {
+                    size &= 0x7FFFFFFF;
+                    out.write(in, i, size);
+                } else {
+                    decodeLz4Block(in, i, i + size, out);
+                }
+                i += size;
+            }
+            i += 4;
+        }
+        return out.toByteArray();
+    }
+
+    static void decodeLz4Block(byte[] in, int i, int end, ByteArrayOutputStream out) {
+        int blockStart = out.size();
+        while (true) {
+            int token = in[i++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = in[i++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            out.write(in, i, literals);
+            i += literals;
+            if (i == end) {
+                return;
+            }
+            int offset = (in[i] & 0xFF) | (in[i + 1] & 0xFF) << 8;
+            i += 2;
+            int matchLength = token & 0xF;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = in[i++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += 4;
+            byte[] decoded = out.toByteArray();
+            int from = decoded.length - offset;
+            assertTrue(offset > 0 && from >= blockStart);
+            byte[] match = new byte[matchLength];
+            for (int k = 0; k < matchLength; k++) {
+                // Matches may overlap the bytes they produce.
+                match[k] = k < offset ? decoded[from + k] : match[k - offset];
+            }
+            out.write(match, 0, matchLength);
+        }
+    }
+
+    static int readIntLE(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
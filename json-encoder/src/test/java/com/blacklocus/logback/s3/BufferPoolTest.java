@@ -0,0 +1,97 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    final AtomicInteger created = new AtomicInteger();
+
+    final BufferPool<CharJsonWriter> pool = new BufferPool.Writers<CharJsonWriter>(64) {
+        @Override
+        CharJsonWriter create() {
+            created.incrementAndGet();
+            return new CharJsonWriter(16);
+        }
+    };
+
+    @Test
+    public void reusesAndDropsOversized() {
+        CharJsonWriter writer = pool.acquire();
+        pool.release(writer);
+        assertSame(writer, pool.acquire());
+
+        CharJsonWriter other = pool.acquire();
+        assertNotSame(writer, other);
+        pool.release(writer);
+        pool.release(other);
+        assertEquals(2, pool.size());
+
+        CharJsonWriter grown = pool.acquire();
+        grown.raw(new String(new char[1000]));
+        pool.release(grown);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void shortLivedThreadsShareBuffers() throws Exception {
+        final Set<CharJsonWriter> seen = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<CharJsonWriter, Boolean>()));
+        for (int i = 0; i < 1000; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    CharJsonWriter writer = pool.acquire();
+                    seen.add(writer);
+                    pool.release(writer);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        // Each new thread starts at a new slot, but once every slot has a buffer there's always one to take.
+        assertTrue(created.get() <= pool.capacity());
+        assertEquals(created.get(), seen.size());
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        CharJsonWriter writer = pool.acquire();
+                        writer.reset();
+                        writer.raw("x");
+                        assertEquals(1, writer.size());
+                        pool.release(writer);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(created.get() <= pool.capacity() + threads.length);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class CallerLocatorTest {
+
+    @Test
+    public void everyEvent() {
+        List<Integer> lines = log(new CallerLocator(1, false, 100), 3);
+        Integer line = lines.get(0);
+        assertNotNull(line);
+        assertEquals(Arrays.asList(line, line, line), lines);
+    }
+
+    @Test
+    public void sampled() {
+        List<Integer> lines = log(new CallerLocator(2, false, 100), 4);
+        Integer line = lines.get(0);
+        assertNotNull(line);
+        assertEquals(Arrays.asList(line, null, line, null), lines);
+    }
+
+    @Test
+    public void sampledWithCache() {
+        List<Integer> lines = log(new CallerLocator(1000, true, 100), 4);
+        Integer line = lines.get(0);
+        assertNotNull(line);
+        assertEquals(Arrays.asList(line, line, line, line), lines);
+    }
+
+    List<Integer> log(final CallerLocator locator, int times) {
+        final List<Integer> lines = new ArrayList<>();
+        LoggerContext loggerContext = new LoggerContext();
+        AppenderBase<ILoggingEvent> appender = new AppenderBase<ILoggingEvent>() {
+            @Override
+            protected void append(ILoggingEvent e) {
+                lines.add(locator.lineNumber(e));
+            }
+        };
+        appender.setContext(loggerContext);
+        appender.start();
+        Logger logger = loggerContext.getLogger(CallerLocatorTest.class);
+        logger.addAppender(appender);
+
+        for (int i = 0; i < times; i++) {
+            logger.info("hello {}", i);
+        }
+        return lines;
+    }
+}
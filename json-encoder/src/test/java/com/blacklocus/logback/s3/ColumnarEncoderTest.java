@@ -0,0 +1,169 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.blacklocus.logback.s3.avro.LogLevel;
+import com.blacklocus.logback.s3.avro.RawLog;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarEncoderTest {
+
+    static final long START = 1431441677000L;
+    static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+    LoggerContext loggerContext = new LoggerContext();
+
+    @Test
+    public void roundTrips() throws Exception {
+        byte[] bytes = encode(1000, 64);
+
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(bytes))) {
+            for (int i = 0; i < 1000; i++) {
+                RawLog log = reader.read();
+                assertEquals("com.blacklocus.Test" + i % 3, log.getLoggerName().toString());
+                assertEquals(LogLevel.valueOf(LEVELS[i % 5].toString()), log.getLogLevel());
+                assertEquals(START + timestampOffset(i), (long) LogIndexReader.parseTimestamp(log.getLogDateTime().toString()));
+                assertEquals("event {} of {}", log.getFormat().toString());
+                assertEquals(i % 10 == 0 ? null : String.valueOf(i), string(log.getArgs().get(0)));
+                assertEquals("1000", log.getArgs().get(1).toString());
+                Map<CharSequence, CharSequence> context = log.getContext();
+                assertEquals(i % 2 == 0 ? Collections.singletonMap("request", "r" + i / 2) : Collections.emptyMap(), context);
+                assertNull(log.getLineNumber());
+                assertNull(log.getRendered());
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void readsOnlyProjectedColumns() throws Exception {
+        byte[] bytes = encode(300, 4096);
+
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(bytes),
+                ColumnarReader.Column.LOG_LEVEL, ColumnarReader.Column.TIMESTAMP)) {
+            int errors = 0;
+            for (RawLog log; null != (log = reader.read()); ) {
+                assertTrue(null != log.getLogDateTime());
+                assertNull(log.getLoggerName());
+                assertNull(log.getFormat());
+                assertNull(log.getArgs());
+                assertNull(log.getContext());
+                if (LogLevel.ERROR == log.getLogLevel()) {
+                    errors++;
+                }
+            }
+            assertEquals(60, errors);
+        }
+    }
+
+    @Test
+    public void isSmallerThanJson() throws Exception {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        JsonEncoder<ILoggingEvent> jsonEncoder = new JsonEncoder<>();
+        jsonEncoder.setContext(loggerContext);
+        jsonEncoder.start();
+        jsonEncoder.init(json);
+        for (int i = 0; i < 1000; i++) {
+            jsonEncoder.doEncode(event(i, 1000));
+        }
+        jsonEncoder.close();
+
+        byte[] columnar = encode(1000, 4096);
+        assertTrue(columnar.length + " vs " + json.size(), columnar.length * 4 < json.size());
+    }
+
+    @Test
+    public void writerDropsABlockThatFailedToWrite() throws Exception {
+        final boolean[] failing = {true};
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                if (failing[0]) {
+                    failing[0] = false;
+                    throw new IllegalStateException("disk full");
+                }
+                super.write(b, off, len);
+            }
+        };
+        ColumnarWriter writer = new ColumnarWriter(out, 2, false);
+        writer.write(log("lost 1"));
+        try {
+            writer.write(log("lost 2"));
+        } catch (IllegalStateException expected) {
+            // The first block fails, and is not written again on close.
+        }
+        writer.write(log("kept"));
+        writer.close();
+
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("kept", reader.read().getFormat().toString());
+            assertNull(reader.read());
+        }
+    }
+
+    byte[] encode(int count, int batchSize) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarEncoder<ILoggingEvent> encoder = new ColumnarEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setBatchSize(batchSize);
+        encoder.start();
+        encoder.init(out);
+        for (int i = 0; i < count; i++) {
+            encoder.doEncode(event(i, count));
+        }
+        encoder.close();
+        return out.toByteArray();
+    }
+
+    /** Mostly steady, with the occasional jump back and forth. */
+    static long timestampOffset(int i) {
+        return i * 10L + (i % 97 == 0 ? -2500 : 0) + (i % 13 == 0 ? 7 : 0);
+    }
+
+    LoggingEvent event(int i, int count) {
+        LoggingEvent event = new LoggingEvent(ColumnarEncoderTest.class.getName(),
+                loggerContext.getLogger("com.blacklocus.Test" + i % 3), LEVELS[i % 5], "event {} of {}", null,
+                new Object[]{i % 10 == 0 ? null : i, count});
+        event.setTimeStamp(START + timestampOffset(i));
+        event.setMDCPropertyMap(i % 2 == 0 ? Collections.singletonMap("request", "r" + i / 2)
+                : Collections.<String, String>emptyMap());
+        return event;
+    }
+
+    static RawLog log(String format) {
+        RawLog log = new RawLog();
+        log.setLoggerName("com.blacklocus.Test");
+        log.setLogLevel(LogLevel.INFO);
+        log.setLogDateTime("2015-05-12T14:41:17.000Z");
+        log.setFormat(format);
+        log.setArgs(Collections.<CharSequence>emptyList());
+        log.setContext(Collections.<CharSequence, CharSequence>emptyMap());
+        return log;
+    }
+
+    static String string(CharSequence s) {
+        return null == s ? null : s.toString();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EncoderMetricsTest {
+
+    static final AtomicInteger LISTENED = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void countsTimesAndExposesOverJmx() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setMetricsName("metrics-test");
+        encoder.addListener(CountingListener.class.getName());
+        encoder.start();
+        LISTENED.set(0);
+
+        int size = 0;
+        for (int i = 0; i < 10; i++) {
+            size += encoder._doLayout(events.event("event {}", i)).length();
+        }
+        assertNull(encoder._doLayout(events.event("broken {}", new Unserializable())));
+
+        EncoderMetrics metrics = encoder.getMetrics();
+        assertEquals(10, metrics.getEventCount());
+        assertEquals(size, metrics.getEncodedSize());
+        assertEquals(1, metrics.getFailureCount());
+        assertEquals(Collections.singleton("org.codehaus.jackson.map.JsonMappingException"),
+                metrics.getFailuresByType().keySet());
+        assertEquals(11, LISTENED.get());
+        assertEquals(10, metrics.stage(EncoderMetrics.Stage.TOTAL).count());
+        assertTrue(metrics.getStageNanosP50().get("TOTAL") > 0);
+        assertTrue(metrics.getStageNanosMax().get("TOTAL") >= metrics.getStageNanosP99().get("ARGS"));
+
+        ObjectName name = new ObjectName("com.blacklocus.logback.s3:type=JsonEncoder,name=\"metrics-test\"");
+        assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EventCount"));
+        encoder.stop();
+        assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void unregistersWhenTheAppenderStops() throws Exception {
+        ObjectName name = new ObjectName("com.blacklocus.logback.s3:type=JsonEncoder,name=\"reconfigured\"");
+        for (int generation = 1; generation <= 2; generation++) {
+            JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+            encoder.setContext(loggerContext);
+            encoder.setMetricsName("reconfigured");
+            encoder.setMetrics(true);
+            encoder.start();
+            FileAppender<ILoggingEvent> appender = new FileAppender<>();
+            appender.setContext(loggerContext);
+            appender.setFile(tmp.newFile().getPath());
+            appender.setEncoder(encoder);
+            appender.start();
+            for (int i = 0; i < generation; i++) {
+                appender.doAppend(events.event("event {}", i));
+            }
+            assertEquals((long) generation, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EventCount"));
+            // Like every logback appender, this closes the encoder but never stops it.
+            appender.stop();
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        }
+    }
+
+    @Test
+    public void histogramMaxUnderContention() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i * threads.length + id);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100000 * threads.length - 1, histogram.max());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertWithin(5000000, histogram.percentile(50));
+        assertWithin(9900000, histogram.percentile(99));
+        assertEquals(10000000, histogram.max());
+        assertEquals(5000500, histogram.mean());
+        assertEquals(0, new LatencyHistogram().percentile(99));
+    }
+
+    static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+
+    public static class Unserializable {
+        public String getValue() {
+            throw new IllegalStateException("nope");
+        }
+    }
+
+    public static class CountingListener implements EncoderListener {
+        @Override
+        public void encoded(ILoggingEvent event, int size, long[] stageNanos) {
+            LISTENED.incrementAndGet();
+        }
+
+        @Override
+        public void failed(ILoggingEvent event, Exception cause) {
+            LISTENED.incrementAndGet();
+        }
+    }
+}
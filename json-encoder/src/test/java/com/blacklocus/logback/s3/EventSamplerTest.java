@@ -0,0 +1,113 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventSamplerTest {
+
+    static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void mostSpecificRuleWins() {
+        EventSampler sampler = new EventSampler(Arrays.asList(
+                EventSampler.Rule.parse("ROOT=0.5"),
+                EventSampler.Rule.parse("com.example=0.25"),
+                EventSampler.Rule.parse("com.example:DEBUG=0"),
+                EventSampler.Rule.parse("com.example.Quiet=1")), 0, 0, 0, 10);
+
+        assertEquals(0.5, sampler.sampleRate("org.Other", Level.INFO), 0);
+        assertEquals(0.25, sampler.sampleRate("com.example", Level.INFO), 0);
+        assertEquals(0.25, sampler.sampleRate("com.example.Chatty", Level.INFO), 0);
+        assertEquals(0.5, sampler.sampleRate("com.examples", Level.INFO), 0);
+        assertEquals(0, sampler.sampleRate("com.example.Chatty", Level.DEBUG), 0);
+        assertEquals(1, sampler.sampleRate("com.example.Quiet", Level.DEBUG), 0);
+
+        assertFalse(sampler.accept(events.from("com.example.Chatty", Level.DEBUG, "dropped")));
+        assertTrue(sampler.accept(events.from("com.example.Quiet", Level.DEBUG, "kept")));
+    }
+
+    @Test
+    public void rateLimitsPerCallSite() {
+        // 100 per second with bursts of 3: one event every 10ms once the burst is spent.
+        EventSampler sampler = new EventSampler(Collections.<EventSampler.Rule>emptyList(), 100, 3, 1000, 10);
+        ILoggingEvent a = events.from("com.example.A", Level.INFO, "a {}");
+        ILoggingEvent b = events.from("com.example.A", Level.INFO, "b {}");
+
+        long now = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(sampler.accept(a, now));
+        }
+        assertFalse(sampler.accept(a, now));
+        assertTrue(sampler.accept(b, now));
+        assertFalse(sampler.accept(a, now + 9 * MILLI));
+        assertTrue(sampler.accept(a, now + 10 * MILLI));
+        assertFalse(sampler.accept(a, now + 10 * MILLI));
+        // A quiet spell refills the burst, no more.
+        now += 1000 * MILLI;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(sampler.accept(a, now));
+        }
+        assertFalse(sampler.accept(a, now));
+    }
+
+    @Test
+    public void summarizesSuppressedEvents() {
+        EventSampler sampler = new EventSampler(Collections.singletonList(EventSampler.Rule.parse("*:DEBUG=0")),
+                0, 0, 1000, 2);
+        assertTrue(sampler.summaries(0).isEmpty());
+
+        for (int i = 0; i < 5; i++) {
+            sampler.accept(events.from("com.example.A", Level.DEBUG, "a"));
+        }
+        sampler.accept(events.from("com.example.A", Level.INFO, "kept"));
+        // The table is full, so these are counted together.
+        sampler.accept(events.from("com.example.B", Level.DEBUG, "b"));
+        sampler.accept(events.from("com.example.C", Level.DEBUG, "c"));
+        assertEquals(2, sampler.size());
+
+        assertTrue(sampler.summaries(999).isEmpty());
+        List<ILoggingEvent> summaries = sampler.summaries(1000);
+        assertEquals(2, summaries.size());
+        ILoggingEvent summary = summaries.get(0);
+        assertEquals("com.example.A", summary.getLoggerName());
+        assertEquals(Level.DEBUG, summary.getLevel());
+        assertEquals("a", summary.getMessage());
+        assertEquals(1000, summary.getTimeStamp());
+        assertEquals("5", summary.getMDCPropertyMap().get(EventSampler.SUPPRESSED_KEY));
+        assertEquals(EventSampler.OVERFLOW_FORMAT, summaries.get(1).getMessage());
+        assertEquals("2", summaries.get(1).getMDCPropertyMap().get(EventSampler.SUPPRESSED_KEY));
+
+        // Only one caller gets each summary, and call sites idle for a whole interval are dropped.
+        assertTrue(sampler.summaries(1000).isEmpty());
+        sampler.accept(events.from("com.example.A", Level.DEBUG, "a"));
+        assertEquals(1, sampler.summaries(2000).size());
+        assertEquals(1, sampler.size());
+        assertTrue(sampler.summaries(3000).isEmpty());
+        assertEquals(0, sampler.size());
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FragmentCacheTest {
+
+    @Test
+    public void cachesAndStaysBounded() {
+        final AtomicInteger created = new AtomicInteger();
+        FragmentCache<String> cache = new FragmentCache<String>(10) {
+            @Override
+            JsonFragment create(String key) {
+                created.incrementAndGet();
+                return JsonFragment.string(key);
+            }
+        };
+
+        JsonFragment hot = cache.get("com.example.Hot");
+        assertEquals("\"com.example.Hot\"", hot.toString());
+        assertSame(hot, cache.get("com.example.Hot"));
+        assertEquals(1, created.get());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get("com.example.Dynamic" + i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(1001, created.get());
+    }
+}
@@ -0,0 +1,377 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import com.blacklocus.logback.s3.avro.LogLevel;
+import com.blacklocus.logback.s3.avro.RawLog;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonEncoderTest {
+
+    static final String NEW_LINE = System.getProperty("line.separator", "\n");
+
+    LoggerContext loggerContext;
+    TestEvents events;
+
+    @Before
+    public void setUp() {
+        loggerContext = new LoggerContext();
+        events = new TestEvents(loggerContext);
+    }
+
+    @Test
+    public void matchesRawLogToString() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = newEncoder();
+
+        ILoggingEvent plain = events.event(Level.INFO, "plain", null);
+        assertEquals(rawLogString(plain), encoder._doLayout(plain));
+
+        ILoggingEvent args = events.event(Level.WARN, "many {} {} {} {}", null,
+                "str", 5, Arrays.asList("a", "b"), null);
+        assertEquals(rawLogString(args), encoder._doLayout(args));
+
+        ILoggingEvent nasty = events.event(Level.ERROR,
+                "quote \" slash \\ tab \t nl \n ctl \u0001 del \u007F \u00A0 \u00E9 \u2028 \u6F22", null,
+                "\"quoted\"");
+        assertEquals(rawLogString(nasty), encoder._doLayout(nasty));
+    }
+
+    @Test
+    public void writesContext() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = newEncoder();
+        LoggingEvent e = events.event(Level.DEBUG, "ctx", null);
+        e.getMDCPropertyMap().put("Tenant", "x\"y");
+        assertEquals(rawLogString(e), encoder._doLayout(e));
+    }
+
+    @Test
+    public void directUtf8MatchesStringPath() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = newEncoder();
+        JsonEncoder<ILoggingEvent> direct = new JsonEncoder<>();
+        direct.setContext(loggerContext);
+        direct.setDirectUtf8(true);
+        direct.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        direct.init(bytes);
+
+        ILoggingEvent e = events.event(Level.INFO, "\u00E9 \u6F22 \uD83D\uDE00 \u2028 {}", null, "\uD83D\uDE00\u0000");
+        direct.doEncode(e);
+        assertEquals(encoder._doLayout(e), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void embedsArgs() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setEmbedArgs(true);
+        encoder.start();
+
+        String json = encoder._doLayout(events.event(Level.INFO, "{} {} {} {}", null, "s", 5, Arrays.asList("a", "b"),
+                null));
+        assertTrue(json, json.contains("\"args\": [\"s\", 5, [\"a\",\"b\"], null]"));
+    }
+
+    @Test
+    public void filtersAndTruncatesContext() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setContextIncludes("RequestId, Tenant");
+        encoder.setContextExcludes("Tenant");
+        encoder.setContextMaxValueLength(4);
+        encoder.start();
+
+        LoggingEvent e = events.event(Level.INFO, "ctx", null);
+        e.getMDCPropertyMap().put("RequestId", "0123456789");
+        e.getMDCPropertyMap().put("Tenant", "acme");
+        e.getMDCPropertyMap().put("Other", "x");
+        String json = encoder._doLayout(e);
+        assertTrue(json, json.endsWith("\"context\": {\"RequestId\": \"0123...\"}}" + NEW_LINE));
+    }
+
+    @Test
+    public void writesStructuredExceptions() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setExceptions(true);
+        encoder.setExceptionDedupInterval(60000);
+        encoder.start();
+
+        assertTrue(encoder._doLayout(events.event(Level.INFO, "fine", null))
+                .endsWith(", \"exception\": null}" + NEW_LINE));
+
+        Exception cause = new IllegalArgumentException("bad \"arg\"");
+        Exception thrown = new IllegalStateException("failed 1", cause);
+        thrown.addSuppressed(new RuntimeException("cleanup"));
+        String full = encoder._doLayout(events.event(Level.ERROR, "oops", thrown));
+        assertTrue(full, full.contains(", \"exception\": {\"traceId\": \""));
+        assertTrue(full, full.contains("\"className\": \"java.lang.IllegalStateException\", \"message\": \"failed 1\", \"frames\": [\"com.blacklocus.logback.s3.JsonEncoderTest.writesStructuredExceptions(JsonEncoderTest.java:"));
+        assertTrue(full, full.contains("\"cause\": {\"className\": \"java.lang.IllegalArgumentException\", \"message\": \"bad \\\"arg\\\"\", \"frames\": ["));
+        assertTrue(full, full.contains("\"commonFrames\": "));
+        assertTrue(full, full.contains("\"suppressed\": [{\"className\": \"java.lang.RuntimeException\", \"message\": \"cleanup\""));
+
+        String traceId = full.substring(full.indexOf("\"traceId\": ") + 11, full.indexOf("\"traceId\": ") + 29);
+        Exception again = new IllegalStateException("failed 2", cause);
+        again.setStackTrace(thrown.getStackTrace());
+        again.addSuppressed(thrown.getSuppressed()[0]);
+        String repeated = encoder._doLayout(events.event(Level.ERROR, "oops", again));
+        assertTrue(repeated, repeated.endsWith(", \"exception\": {\"traceId\": " + traceId
+                + ", \"className\": \"java.lang.IllegalStateException\", \"message\": \"failed 2\", \"repeated\": true}}" + NEW_LINE));
+
+        // A new file gets the full body again.
+        encoder.init(new ByteArrayOutputStream());
+        assertTrue(encoder._doLayout(events.event(Level.ERROR, "oops", again)).contains("\"frames\": ["));
+    }
+
+    @Test
+    public void leavesOverBudgetTracesOutOfDedup() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setExceptions(true);
+        encoder.setExceptionDedupInterval(60000);
+        encoder.setMaxEventSize(600);
+        encoder.start();
+        StackTraceElement[] stack = new StackTraceElement[20];
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = new StackTraceElement("com.blacklocus.Deep", "call" + i, "Deep.java", i + 1);
+        }
+        Exception thrown = new IllegalStateException("failed");
+        thrown.setStackTrace(stack);
+
+        for (int i = 0; i < 2; i++) {
+            String json = encoder._doLayout(events.event(Level.ERROR, "oops", thrown));
+            assertTrue(json, json.contains(", \"exception\": {\"traceId\": \""));
+            assertTrue(json, json.contains("\"className\": \"java.lang.IllegalStateException\", \"message\": \"failed\"}"));
+            assertFalse(json, json.contains("\"frames\""));
+            assertFalse(json, json.contains("\"repeated\""));
+        }
+    }
+
+    @Test
+    public void simplePatternMatchesPatternLayout() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setPattern(SimplePatternRenderer.PATTERN);
+        encoder.start();
+        JsonEncoder<ILoggingEvent> direct = new JsonEncoder<>();
+        direct.setContext(loggerContext);
+        direct.setPattern(SimplePatternRenderer.PATTERN);
+        direct.setDirectUtf8(true);
+        direct.start();
+        PatternLayout layout = new PatternLayout();
+        layout.setContext(loggerContext);
+        layout.setPattern(SimplePatternRenderer.PATTERN);
+        layout.start();
+
+        LoggingEvent threaded = events.event(Level.DEBUG, "multi\nline \u2028 \u00E9 {}", null, "\"arg\"");
+        threaded.setThreadName("pool \"1\" \u6F22");
+        LoggingEvent early = events.event(Level.INFO, "before 1970", null);
+        early.setTimeStamp(-1234567);
+        for (LoggingEvent e : Arrays.asList(events.event(Level.INFO, "plain", null),
+                events.event(Level.ERROR, null, null), threaded,
+                early, events.event(Level.WARN, "thrown", new IllegalStateException("boom")))) {
+            String rendered = new CharJsonWriter(256).string(layout.doLayout(e)).toString();
+            String json = encoder._doLayout(e);
+            assertTrue(json, json.contains(", \"rendered\": " + rendered + ", \"format\""));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            direct.init(bytes);
+            direct.doEncode(e);
+            assertEquals(json, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void renderModes() throws Exception {
+        JsonEncoder<ILoggingEvent> messageOnly = new JsonEncoder<>();
+        messageOnly.setContext(loggerContext);
+        messageOnly.setRenderMode("message-only");
+        messageOnly.start();
+        String json = messageOnly._doLayout(events.event(Level.INFO, "hello {}", null, "world"));
+        assertTrue(json, json.contains("\"rendered\": \"hello world\""));
+
+        JsonEncoder<ILoggingEvent> onLevel = new JsonEncoder<>();
+        onLevel.setContext(loggerContext);
+        onLevel.setPattern("%level %msg");
+        onLevel.setRenderMode("on-level");
+        onLevel.setRenderLevel("ERROR");
+        onLevel.start();
+        json = onLevel._doLayout(events.event(Level.WARN, "skipped", null));
+        assertTrue(json, json.contains("\"rendered\": null"));
+        json = onLevel._doLayout(events.event(Level.ERROR, "kept", null));
+        assertTrue(json, json.contains("\"rendered\": \"ERROR kept\""));
+    }
+
+    @Test
+    public void boundsArgsAndEvents() throws Exception {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String big = new String(chars);
+
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setArgMaxSize(16);
+        encoder.setArgMaxElements(2);
+        encoder.setEmbedArgs(true);
+        encoder.start();
+        String json = encoder._doLayout(events.event(Level.INFO, "{} {} {}", null, big, Arrays.asList(1, 2, 3),
+                Arrays.asList(big)));
+        assertTrue(json, json.contains("\"args\": [\"xxxxxxxxxxxxxxxx...\", [1,2,\"...\"], \"[\\\"xxxxxxxxxxxxxx...\"]"));
+
+        JsonEncoder<ILoggingEvent> bounded = new JsonEncoder<>();
+        bounded.setContext(loggerContext);
+        bounded.setMaxEventSize(300);
+        bounded.start();
+        LoggingEvent e = events.event(Level.INFO, "{}", null, big);
+        e.getMDCPropertyMap().put("Tenant", "acme");
+        json = bounded._doLayout(e);
+        assertTrue(json, json.length() <= 300 + NEW_LINE.length());
+        assertTrue(json, json.endsWith("\"format\": \"{}\", \"args\": [\"...\"], \"context\": {}}" + NEW_LINE));
+
+        LoggingEvent fits = events.event(Level.INFO, "{}", null, "small");
+        assertEquals(rawLogString(fits), bounded._doLayout(fits));
+    }
+
+    @Test
+    public void samplesAndSummarizes() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.addSampleRate("com.blacklocus:DEBUG=0");
+        encoder.setRateLimit(1);
+        encoder.setSummaryInterval(1000);
+        encoder.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.init(bytes);
+
+        LoggingEvent first = events.event(Level.INFO, "limited", null);
+        encoder.doEncode(first);
+        encoder.doEncode(events.event(Level.INFO, "limited", null));
+        encoder.doEncode(events.event(Level.DEBUG, "sampled", null));
+        LoggingEvent later = events.event(Level.WARN, "later", null);
+        later.setTimeStamp(first.getTimeStamp() + 1000);
+        encoder.doEncode(later);
+
+        String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split(NEW_LINE);
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].contains("\"format\": \"limited\""));
+        assertTrue(lines[1] + lines[2], (lines[1] + lines[2]).contains("\"logLevel\": \"INFO\", \"logDateTime\": \""
+                + new DateTime(later.getTimeStamp()).withZone(DateTimeZone.UTC) + "\", \"lineNumber\": null, \"rendered\": null, "
+                + "\"format\": \"limited\", \"args\": [], \"context\": {\"suppressed\": \"1\"}}"));
+        assertTrue(lines[1] + lines[2], (lines[1] + lines[2]).contains("\"logLevel\": \"DEBUG\""));
+        assertTrue(lines[3], lines[3].contains("\"format\": \"later\""));
+    }
+
+    @Test
+    public void writesCallSiteIdsAndDictionary() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCallSiteDictionary(true);
+        encoder.start();
+        String id = CallSiteIds.toHex(CallSiteIds.hash("com.blacklocus.Test", "hello {}", 0));
+        String otherId = CallSiteIds.toHex(CallSiteIds.hash("com.blacklocus.Test", "bye", 0));
+        assertFalse(id.equals(otherId));
+
+        for (int file = 0; file < 2; file++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            encoder.init(bytes);
+            encoder.doEncode(events.event(Level.INFO, "hello {}", null, "a"));
+            encoder.doEncode(events.event(Level.INFO, "bye", null));
+            encoder.doEncode(events.event(Level.INFO, "hello {}", null, "b"));
+
+            String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split(NEW_LINE);
+            assertTrue(lines[0], lines[0].contains("\"format\": \"hello {}\""));
+            assertTrue(lines[0], lines[0].endsWith(", \"callSiteId\": \"" + id + "\"}"));
+            assertTrue(lines[1], lines[1].contains("\"format\": \"bye\""));
+            assertTrue(lines[1], lines[1].endsWith(", \"callSiteId\": \"" + otherId + "\"}"));
+            assertTrue(lines[2], lines[2].contains("\"format\": null, \"args\": [\"b\"]"));
+            assertTrue(lines[2], lines[2].endsWith(", \"callSiteId\": \"" + id + "\"}"));
+        }
+    }
+
+    @Test
+    public void leavesSampledLinesOutOfCallSiteIds() throws Exception {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCallSiteIds(true);
+        encoder.setLineNumbers(true);
+        encoder.setLineNumberSampleRate(2);
+        encoder.start();
+        String id = CallSiteIds.toHex(CallSiteIds.hash("com.blacklocus.Test", "hello", 0));
+
+        boolean warned = false;
+        for (Status status : loggerContext.getStatusManager().getCopyOfStatusList()) {
+            warned |= status.getLevel() == Status.WARN && status.getMessage().contains("callSiteIds");
+        }
+        assertTrue(warned);
+        boolean sampledOne = false;
+        for (int i = 0; i < 4; i++) {
+            // Logged as this class, which is on the stack when the encoder looks for a caller.
+            LoggingEvent e = new LoggingEvent(JsonEncoderTest.class.getName(),
+                    loggerContext.getLogger(TestEvents.LOGGER_NAME), Level.INFO, "hello", null, null);
+            String line = encoder._doLayout(e);
+            sampledOne |= !line.contains("\"lineNumber\": null");
+            assertTrue(line, line.contains(", \"callSiteId\": \"" + id + "\"}"));
+        }
+        assertTrue(sampledOne);
+    }
+
+    JsonEncoder<ILoggingEvent> newEncoder() {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.start();
+        return encoder;
+    }
+
+    /**
+     * The old serialization path, kept here as the reference output.
+     */
+    static String rawLogString(ILoggingEvent e) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<CharSequence> args = new ArrayList<>();
+        if (null != e.getArgumentArray()) {
+            for (Object arg : e.getArgumentArray()) {
+                args.add(null == arg ? null : arg instanceof String ? (String) arg : mapper.writeValueAsString(arg));
+            }
+        }
+        Map<CharSequence, CharSequence> context = new HashMap<>();
+        context.putAll(e.getMDCPropertyMap());
+        return RawLog.newBuilder()
+                .setLoggerName(e.getLoggerName())
+                .setLogLevel(LogLevel.valueOf(e.getLevel().toString()))
+                .setLogDateTime(new DateTime(e.getTimeStamp()).withZone(DateTimeZone.UTC).toString())
+                .setFormat(e.getMessage())
+                .setArgs(args)
+                .setContext(context)
+                .build().toString() + NEW_LINE;
+    }
+}
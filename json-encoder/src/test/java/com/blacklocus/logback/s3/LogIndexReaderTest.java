@@ -0,0 +1,207 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
+import ch.qos.logback.core.status.Status;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogIndexReaderTest {
+
+    static final long START = 1431441677000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void seeksByTimeAndLevel() throws Exception {
+        for (String compression : new String[]{"none", "gzip"}) {
+            File file = new File(tmp.getRoot(), "indexed-" + compression + ".json");
+            FileAppender<ILoggingEvent> appender = newAppender(file, compression);
+            // 10 records a second, an ERROR every 50
+            for (int i = 0; i < 500; i++) {
+                appender.doAppend(events.event(i % 50 == 49 ? Level.ERROR : Level.INFO, "e" + i, START + i * 100));
+            }
+            appender.stop();
+
+            try (LogIndexReader reader = new LogIndexReader(file)) {
+                List<LogIndexReader.Block> blocks = reader.getBlocks();
+                assertEquals(compression, 50, blocks.size());
+                for (LogIndexReader.Block block : blocks) {
+                    assertTrue(block.isIndexed());
+                    assertEquals(10, block.records);
+                }
+                assertTrue(blocks.get(4).hasLevel(Level.ERROR));
+                assertFalse(blocks.get(5).hasLevel(Level.ERROR));
+
+                List<String> window = lines(reader.read(START + 12050, START + 12950, null));
+                assertEquals(9, window.size());
+                assertTrue(window.get(0).contains("\"format\": \"e121\""));
+                assertTrue(window.get(8).contains("\"format\": \"e129\""));
+
+                List<String> errors = lines(reader.errors());
+                assertEquals(10, errors.size());
+                assertTrue(errors.get(0).contains("\"format\": \"e49\""));
+            }
+        }
+    }
+
+    @Test
+    public void scansWhatIsNotIndexed() throws Exception {
+        File file = new File(tmp.getRoot(), "appended.json");
+        FileAppender<ILoggingEvent> appender = newAppender(file, "none");
+        for (int i = 0; i < 25; i++) {
+            appender.doAppend(events.event(Level.INFO, "e" + i, START + i));
+        }
+        appender.stop();
+        // Lost its last index entry, as if the process had died.
+        File index = LogIndexWriter.indexFile(file);
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() - LogIndexWriter.ENTRY_SIZE);
+        }
+
+        try (LogIndexReader reader = new LogIndexReader(file)) {
+            List<LogIndexReader.Block> blocks = reader.getBlocks();
+            assertEquals(3, blocks.size());
+            assertFalse(blocks.get(2).isIndexed());
+            assertEquals(file.length(), blocks.get(2).end);
+            assertEquals(5, lines(reader.read(START + 20, Long.MAX_VALUE, null)).size());
+            assertEquals(2, lines(reader.read(START + 8, START + 9, Level.INFO)).size());
+        }
+    }
+
+    @Test
+    public void countsOnlyEncodedEvents() throws Exception {
+        File file = new File(tmp.getRoot(), "failing.json");
+        JsonEncoder<ILoggingEvent> encoder = newEncoder("none");
+        encoder.setMaxEventSize(400);
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(loggerContext);
+        appender.setFile(file.getPath());
+        appender.setEncoder(encoder);
+        appender.start();
+        char[] name = new char[500];
+        Arrays.fill(name, 'x');
+        for (int i = 0; i < 40; i++) {
+            LoggingEvent event = events.event(Level.INFO, "e" + i, START + i);
+            if (i % 4 == 3) {
+                // Doesn't fit in maxEventSize, even minimal.
+                event.setLoggerName(new String(name));
+            }
+            appender.doAppend(event);
+        }
+        appender.stop();
+
+        try (LogIndexReader reader = new LogIndexReader(file)) {
+            int records = 0;
+            for (LogIndexReader.Block block : reader.getBlocks()) {
+                assertTrue(block.isIndexed());
+                records += block.records;
+            }
+            assertEquals(30, records);
+            assertEquals(30, lines(reader.read(START, Long.MAX_VALUE, null)).size());
+        }
+    }
+
+    @Test
+    public void warnsWhenRolloverLeavesTheIndexBehind() throws Exception {
+        File file = new File(tmp.getRoot(), "rolling.json");
+        RollingFileAppender<ILoggingEvent> appender = new RollingFileAppender<>();
+        appender.setContext(loggerContext);
+        appender.setFile(file.getPath());
+        appender.setEncoder(newEncoder("none"));
+        FixedWindowRollingPolicy rollingPolicy = new FixedWindowRollingPolicy();
+        rollingPolicy.setContext(loggerContext);
+        rollingPolicy.setParent(appender);
+        rollingPolicy.setFileNamePattern(new File(tmp.getRoot(), "rolling.%i.json").getPath());
+        rollingPolicy.start();
+        SizeBasedTriggeringPolicy<ILoggingEvent> triggeringPolicy = new SizeBasedTriggeringPolicy<>();
+        triggeringPolicy.setContext(loggerContext);
+        triggeringPolicy.setMaxFileSize("10MB");
+        triggeringPolicy.start();
+        appender.setRollingPolicy(rollingPolicy);
+        appender.setTriggeringPolicy(triggeringPolicy);
+        appender.start();
+        for (int i = 0; i < 25; i++) {
+            appender.doAppend(events.event(Level.INFO, "e" + i, START + i));
+        }
+        appender.rollover();
+        for (int i = 25; i < 40; i++) {
+            appender.doAppend(events.event(Level.INFO, "e" + i, START + i));
+        }
+        appender.stop();
+
+        boolean warned = false;
+        for (Status status : loggerContext.getStatusManager().getCopyOfStatusList()) {
+            warned |= status.getLevel() == Status.WARN && status.getMessage().contains("rolled or truncated");
+        }
+        assertTrue(warned);
+        try (LogIndexReader reader = new LogIndexReader(file)) {
+            List<LogIndexReader.Block> blocks = reader.getBlocks();
+            assertEquals(2, blocks.size());
+            assertTrue(blocks.get(1).isIndexed());
+            List<String> all = lines(reader.read(START, Long.MAX_VALUE, null));
+            assertEquals(15, all.size());
+            assertTrue(all.get(0).contains("\"format\": \"e25\""));
+        }
+    }
+
+    FileAppender<ILoggingEvent> newAppender(File file, String compression) {
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(loggerContext);
+        appender.setFile(file.getPath());
+        appender.setEncoder(newEncoder(compression));
+        appender.start();
+        return appender;
+    }
+
+    JsonEncoder<ILoggingEvent> newEncoder(String compression) {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setDirectUtf8(true);
+        encoder.setCompression(compression);
+        encoder.setIndex(true);
+        encoder.setIndexBlockRecords(10);
+        encoder.start();
+        return encoder;
+    }
+
+    static List<String> lines(LogIndexReader.Lines lines) throws Exception {
+        List<String> all = new ArrayList<>();
+        for (String line; null != (line = lines.readLine()); ) {
+            all.add(line);
+        }
+        return all;
+    }
+}
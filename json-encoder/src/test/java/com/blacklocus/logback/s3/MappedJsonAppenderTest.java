@@ -0,0 +1,168 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedJsonAppenderTest {
+
+    /** Holds the encoding thread up after the event is encoded, so that others get to reserve space in between. */
+    public static class SlowListener implements EncoderListener {
+        @Override
+        public void encoded(ILoggingEvent event, int size, long[] stageNanos) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(ThreadLocalRandom.current().nextInt(200)));
+        }
+
+        @Override
+        public void failed(ILoggingEvent event, Exception cause) {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void concurrentWritesAcrossSegments() throws Exception {
+        File file = tmp.newFile();
+        final MappedJsonAppender appender = newAppender(file, false);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        appender.doAppend(events.event("t" + id + " " + i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertTrue(bytes[bytes.length - 1] != 0);
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4000, lines.size());
+        int[] next = new int[threads.length];
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("{\"loggerName\": ") && line.endsWith("}"));
+            int start = line.indexOf("\"format\": \"t") + 12;
+            String[] parts = line.substring(start, line.indexOf('"', start)).split(" ");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+        }
+        assertEquals(0, appender.getFailedCount());
+    }
+
+    @Test
+    public void appendsOverTrailingZeros() throws Exception {
+        File file = tmp.newFile();
+        byte[] crashed = Arrays.copyOf("{\"before\": 1}\n".getBytes(StandardCharsets.UTF_8), 5000);
+        Files.write(file.toPath(), crashed);
+
+        MappedJsonAppender appender = newAppender(file, true);
+        appender.doAppend(events.event("after"));
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals("{\"before\": 1}", lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).contains("\"format\": \"after\""));
+    }
+
+    @Test
+    public void writesFirstAppearancesFirst() throws Exception {
+        File file = tmp.newFile();
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCallSiteDictionary(true);
+        encoder.addListener(SlowListener.class.getName());
+        encoder.start();
+        final MappedJsonAppender appender = newAppender(file, false, encoder);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        appender.doAppend(events.event("site " + i % 100));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        Set<String> seen = new HashSet<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String callSiteId = line.substring(line.indexOf("\"callSiteId\": "));
+            if (seen.add(callSiteId)) {
+                assertFalse(line, line.contains("\"format\": null"));
+            }
+        }
+        assertEquals(100, seen.size());
+    }
+
+    @Test
+    public void placeholderIsAnEmptyLineOfTheSameLength() {
+        assertEquals("{}   \n", new String(MappedJsonAppender.placeholder(6).toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(" \n", new String(MappedJsonAppender.placeholder(2).toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    MappedJsonAppender newAppender(File file, boolean append) {
+        return newAppender(file, append, null);
+    }
+
+    MappedJsonAppender newAppender(File file, boolean append, JsonEncoder<ILoggingEvent> encoder) {
+        MappedJsonAppender appender = new MappedJsonAppender();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.setName("test");
+        appender.setFile(file.getAbsolutePath());
+        appender.setAppend(append);
+        appender.setSegmentSize(1000);
+        appender.setMaxFlushTime(10000);
+        appender.start();
+        return appender;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelJsonAppenderTest {
+
+    /** Takes a random while to serialize, so that batches finish out of order. */
+    public static class Slow {
+        public int getValue() {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(ThreadLocalRandom.current().nextInt(200)));
+            return 1;
+        }
+    }
+
+    /** Blows the stack when serialized. */
+    public static class Deep {
+        public int getValue() {
+            throw new StackOverflowError();
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void writesInAppendOrder() throws Exception {
+        File file = tmp.newFile();
+        ParallelJsonAppender appender = newAppender(file, "block", 64);
+        for (int i = 0; i < 5000; i++) {
+            appender.doAppend(events.event("e" + i, i % 7 == 0 ? new Slow() : "fast"));
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(5000, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertTrue(lines.get(i), lines.get(i).contains("\"format\": \"e" + i + "\""));
+        }
+        assertEquals(0, appender.getDroppedCount());
+        assertEquals(0, appender.getFailedCount());
+    }
+
+    @Test
+    public void writesEverythingInPerThreadOrder() throws Exception {
+        File file = tmp.newFile();
+        final ParallelJsonAppender appender = newAppender(file, "block", 16);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        appender.doAppend(events.event("t" + id + " " + i, i % 5 == 0 ? new Slow() : "fast"));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4000, lines.size());
+        int[] next = new int[threads.length];
+        for (String line : lines) {
+            int start = line.indexOf("\"format\": \"t") + 12;
+            String[] parts = line.substring(start, line.indexOf('"', start)).split(" ");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+        }
+    }
+
+    @Test
+    public void turnsOffTheCallSiteDictionary() throws Exception {
+        File file = tmp.newFile();
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCallSiteDictionary(true);
+        encoder.start();
+        ParallelJsonAppender appender = newAppender(file, "block", 64, encoder);
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(events.event("site " + i % 10, i % 7 == 0 ? new Slow() : "fast"));
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1000, lines.size());
+        for (String line : lines) {
+            assertTrue(line, line.contains("\"format\": \"site ") && line.contains("\"callSiteId\": "));
+        }
+    }
+
+    @Test
+    public void survivesErrorsFromArgs() throws Exception {
+        File file = tmp.newFile();
+        ParallelJsonAppender appender = newAppender(file, "block", 16);
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(events.event("e" + i, i % 100 == 0 ? new Deep() : "fine"));
+        }
+        appender.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(990, lines.size());
+        assertEquals(10, appender.getFailedCount());
+    }
+
+    ParallelJsonAppender newAppender(File file, String overflowPolicy, int bufferSize) {
+        return newAppender(file, overflowPolicy, bufferSize, null);
+    }
+
+    ParallelJsonAppender newAppender(File file, String overflowPolicy, int bufferSize, JsonEncoder<ILoggingEvent> encoder) {
+        ParallelJsonAppender appender = new ParallelJsonAppender();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.setName("test");
+        appender.setFile(file.getAbsolutePath());
+        appender.setAppend(false);
+        appender.setOverflowPolicy(overflowPolicy);
+        appender.setBufferSize(bufferSize);
+        appender.setBatchSize(4);
+        appender.setWorkers(4);
+        appender.setMaxFlushTime(10000);
+        appender.start();
+        return appender;
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.status.Status;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentUploadAppenderTest {
+
+    /** Fails every other part upload. */
+    static class FlakyStore extends LocalFileObjectStore {
+        final AtomicInteger calls = new AtomicInteger();
+
+        FlakyStore(String directory) {
+            super(directory);
+        }
+
+        @Override
+        public String uploadPart(String key, String uploadId, int partNumber, InputStream data, long length) throws IOException {
+            if (calls.incrementAndGet() % 2 == 1) {
+                throw new IOException("flaky");
+            }
+            return super.uploadPart(key, uploadId, partNumber, data, length);
+        }
+    }
+
+    /** Holds every part upload until released. */
+    static class StuckStore extends LocalFileObjectStore {
+        final CountDownLatch released = new CountDownLatch(1);
+
+        StuckStore(String directory) {
+            super(directory);
+        }
+
+        @Override
+        public String uploadPart(String key, String uploadId, int partNumber, InputStream data, long length) throws IOException {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return super.uploadPart(key, uploadId, partNumber, data, length);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    LoggerContext loggerContext = new LoggerContext();
+    TestEvents events = new TestEvents(loggerContext);
+
+    @Test
+    public void uploadsSegmentsInParallelParts() throws Exception {
+        File store = tmp.newFolder();
+        File buffers = tmp.newFolder();
+        SegmentUploadAppender appender = newAppender(new LocalFileObjectStore(store.getPath()), buffers, null, 60000);
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        appender.stop();
+
+        List<File> objects = objects(store);
+        assertTrue(objects.size() > 1);
+        assertEquals(objects.size(), appender.getUploadedCount());
+        assertLines(1000, objects, false);
+        assertEquals(0, new File(store, LocalFileObjectStore.UPLOADS).list().length);
+        assertEquals(0, buffers.list().length);
+    }
+
+    @Test
+    public void sealsSegmentsByAge() throws Exception {
+        File store = tmp.newFolder();
+        SegmentUploadAppender appender = newAppender(new LocalFileObjectStore(store.getPath()), tmp.newFolder(), "gzip", 50);
+        for (int i = 0; i < 10; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        for (int i = 0; i < 500 && appender.getUploadedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, appender.getUploadedCount());
+        appender.stop();
+
+        List<File> objects = objects(store);
+        assertEquals(1, objects.size());
+        assertTrue(objects.get(0).getName().endsWith(".json.gz"));
+        assertLines(10, objects, true);
+    }
+
+    @Test
+    public void retriesFailedParts() throws Exception {
+        File store = tmp.newFolder();
+        SegmentUploadAppender appender = newAppender(new FlakyStore(store.getPath()), tmp.newFolder(), null, 60000);
+        for (int i = 0; i < 200; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        appender.stop();
+
+        assertEquals(0, appender.getFailedUploadCount());
+        assertLines(200, objects(store), false);
+    }
+
+    @Test
+    public void keepsSegmentsThatFailToUpload() throws Exception {
+        File buffers = tmp.newFolder();
+        SegmentUploadAppender appender = newAppender(new FlakyStore(tmp.newFolder().getPath()), buffers, null, 60000);
+        appender.setMaxRetries(0);
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        appender.stop();
+
+        assertTrue(appender.getFailedUploadCount() > 0);
+        assertEquals(appender.getFailedUploadCount(), buffers.list().length);
+    }
+
+    @Test
+    public void movesWhatIsLeftToDiskOnTimeout() throws Exception {
+        File buffers = tmp.newFolder();
+        StuckStore store = new StuckStore(tmp.newFolder().getPath());
+        SegmentUploadAppender appender = newAppender(store, buffers, null, 60000);
+        appender.setMemoryThreshold(100000);
+        appender.setMaxPendingSegments(100);
+        appender.setMaxFlushTime(100);
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(events.event("e" + i));
+        }
+        appender.stop();
+
+        // All but the one stuck in upload, which stays in memory.
+        int left = buffers.list().length;
+        store.released.countDown();
+        assertTrue(left > 0);
+        boolean warned = false;
+        for (Status status : loggerContext.getStatusManager().getCopyOfStatusList()) {
+            warned |= status.getMessage().contains(left + " segments not uploaded are left in");
+        }
+        assertTrue(warned);
+    }
+
+    @Test
+    public void startsTheCallSiteDictionaryOverInEverySegment() throws Exception {
+        File store = tmp.newFolder();
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCallSiteDictionary(true);
+        encoder.start();
+        SegmentUploadAppender appender = newAppender(new LocalFileObjectStore(store.getPath()), tmp.newFolder(), 60000,
+                encoder);
+        appender.setSegmentSize(2000);
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(events.event("site " + i % 10));
+        }
+        appender.stop();
+
+        List<File> objects = objects(store);
+        assertTrue(objects.size() > 1);
+        Pattern callSiteId = Pattern.compile("\"callSiteId\": \"(\\w+)\"");
+        int count = 0;
+        for (File object : objects) {
+            Set<String> seen = new HashSet<>();
+            for (String line : Files.readAllLines(object.toPath(), StandardCharsets.UTF_8)) {
+                Matcher matcher = callSiteId.matcher(line);
+                assertTrue(line, matcher.find());
+                if (seen.add(matcher.group(1))) {
+                    assertTrue(line, line.contains("\"format\": \"site "));
+                } else {
+                    assertTrue(line, line.contains("\"format\": null"));
+                }
+                count++;
+            }
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void writesEveryTraceInFullOncePerSegment() throws Exception {
+        File store = tmp.newFolder();
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setExceptions(true);
+        encoder.setExceptionDedupInterval(60000);
+        encoder.start();
+        SegmentUploadAppender appender = newAppender(new LocalFileObjectStore(store.getPath()), tmp.newFolder(), 60000,
+                encoder);
+        appender.setSegmentSize(2000);
+        Exception thrown = new IllegalStateException("failed");
+        for (int i = 0; i < 200; i++) {
+            LoggingEvent event = events.event("e" + i);
+            event.setThrowableProxy(new ThrowableProxy(thrown));
+            appender.doAppend(event);
+        }
+        appender.stop();
+
+        List<File> objects = objects(store);
+        assertTrue(objects.size() > 1);
+        int count = 0;
+        for (File object : objects) {
+            List<String> lines = Files.readAllLines(object.toPath(), StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                assertTrue(line, i == 0 ? line.contains("\"frames\": [") : line.contains("\"repeated\": true"));
+                count++;
+            }
+        }
+        assertEquals(200, count);
+    }
+
+    SegmentUploadAppender newAppender(ObjectStoreClient client, File buffers, String compression, long maxSegmentAge) {
+        JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>();
+        encoder.setContext(loggerContext);
+        encoder.setCompression(compression);
+        encoder.start();
+        return newAppender(client, buffers, maxSegmentAge, encoder);
+    }
+
+    SegmentUploadAppender newAppender(ObjectStoreClient client, File buffers, long maxSegmentAge,
+            JsonEncoder<ILoggingEvent> encoder) {
+        SegmentUploadAppender appender = new SegmentUploadAppender();
+        appender.setContext(loggerContext);
+        appender.setName("test");
+        appender.setClient(client);
+        appender.setEncoder(encoder);
+        appender.setKeyPrefix("logs/");
+        appender.setBufferDirectory(buffers.getPath());
+        appender.setSegmentSize(20000);
+        appender.setPartSize(3000);
+        appender.setMemoryThreshold(10000);
+        appender.setMaxPendingSegments(1);
+        appender.setMaxSegmentAge(maxSegmentAge);
+        appender.start();
+        return appender;
+    }
+
+    static List<File> objects(File store) {
+        List<File> objects = new ArrayList<>();
+        collect(store, objects);
+        Collections.sort(objects);
+        return objects;
+    }
+
+    static void collect(File dir, List<File> objects) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                if (!file.getName().equals(LocalFileObjectStore.UPLOADS)) {
+                    collect(file, objects);
+                }
+            } else {
+                objects.add(file);
+            }
+        }
+    }
+
+    static void assertLines(int count, List<File> objects, boolean gzip) throws IOException {
+        int i = 0;
+        for (File object : objects) {
+            InputStream in = new FileInputStream(object);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    gzip ? new GZIPInputStream(in) : in, StandardCharsets.UTF_8))) {
+                for (String line; null != (line = reader.readLine()); i++) {
+                    assertTrue(line, line.contains("\"format\": \"e" + i + "\""));
+                }
+            }
+        }
+        assertEquals(count, i);
+    }
+}
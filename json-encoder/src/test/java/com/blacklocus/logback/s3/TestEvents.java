@@ -0,0 +1,63 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+import java.util.HashMap;
+
+/**
+ * Builds the events that tests log, from {@link #LOGGER_NAME} unless told otherwise and with an empty, mutable MDC.
+ */
+class TestEvents {
+
+    static final String LOGGER_NAME = "com.blacklocus.Test";
+
+    private final LoggerContext loggerContext;
+
+    TestEvents(LoggerContext loggerContext) {
+        this.loggerContext = loggerContext;
+    }
+
+    /**
+     * @return an INFO event
+     */
+    LoggingEvent event(String format, Object... args) {
+        return event(Level.INFO, format, null, args);
+    }
+
+    LoggingEvent event(Level level, String format, Throwable t, Object... args) {
+        return create(LOGGER_NAME, level, format, t, args);
+    }
+
+    LoggingEvent event(Level level, String format, long timestamp) {
+        LoggingEvent e = event(level, format, null);
+        e.setTimeStamp(timestamp);
+        return e;
+    }
+
+    /**
+     * @return an event without args from the given logger
+     */
+    LoggingEvent from(String loggerName, Level level, String format) {
+        return create(loggerName, level, format, null, new Object[0]);
+    }
+
+    private LoggingEvent create(String loggerName, Level level, String format, Throwable t, Object[] args) {
+        LoggingEvent e = new LoggingEvent(TestEvents.class.getName(), loggerContext.getLogger(loggerName), level,
+                format, t, args.length == 0 ? null : args);
+        e.setMDCPropertyMap(new HashMap<String, String>());
+        return e;
+    }
+}
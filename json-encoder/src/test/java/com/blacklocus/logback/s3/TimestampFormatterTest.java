@@ -0,0 +1,58 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.blacklocus.logback.s3;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampFormatterTest {
+
+    @Test
+    public void isoMatchesJoda() {
+        TimestampFormatter formatter = new TimestampFormatter(TimestampFormatter.Format.ISO);
+        long[] edges = {0L, -1L, 951782400000L /* 2000-02-29 */, 1431441677171L, 253402300799999L, 253402300800000L,
+                -62167219200000L, -62167219200001L};
+        for (long millis : edges) {
+            assertEquals(joda(millis), formatter.format(millis));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long millis = (random.nextLong() % 4102444800000L);
+            assertEquals(joda(millis), formatter.format(millis));
+        }
+    }
+
+    @Test
+    public void isoWithinSameMinute() {
+        TimestampFormatter formatter = new TimestampFormatter(TimestampFormatter.Format.ISO);
+        for (long millis = 1431441660000L; millis < 1431441780000L; millis += 7) {
+            assertEquals(joda(millis), formatter.format(millis));
+        }
+    }
+
+    @Test
+    public void otherFormats() {
+        assertEquals("2015-05-12T14:41:17.171000Z",
+                new TimestampFormatter(TimestampFormatter.Format.parse("iso-micros")).format(1431441677171L));
+        assertEquals("1431441677171",
+                new TimestampFormatter(TimestampFormatter.Format.parse("epoch-millis")).format(1431441677171L));
+    }
+
+    static String joda(long millis) {
+        return new DateTime(millis).withZone(DateTimeZone.UTC).toString();
+    }
+}